@@ -0,0 +1,374 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2014, Kestutis Kupciunas (aka kesha)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.htpasswd;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Authentication audit log. Events are put into a bounded lock-free ring
+ * buffer by the authenticating threads and written to a rolling log file by
+ * a background writer thread in batches.
+ * <p>
+ * Recording an event does not block and does not allocate - event fields are
+ * stored into preallocated slot arrays. When the buffer is full the event is
+ * dropped and counted; the writer reports dropped event count in the log.
+ * While the log file cannot be written the writer backs off and stops
+ * taking events, so the buffer fills up and further events are dropped.
+ * User names and addresses are written quoted, with control characters
+ * escaped.
+ *
+ * @author kesha
+ */
+public class AuthAuditLog {
+    private static final Logger logger = Logger.getLogger("htpasswd-audit-log");
+
+    public enum Event {
+        SUCCESS,
+        FAILURE,
+        THROTTLED
+    }
+
+    private static final int BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long MAX_RETRY_PARK_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // ring buffer slots, a slot is readable by the writer once its
+    // sequence is one past the producer position that claimed it
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final long[] times;
+    private final Event[] events;
+    private final String[] users;
+    private final String[] addresses;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    // writer thread state
+    private long tail;
+    private long droppedReported;
+    private final File file;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final SimpleDateFormat dateFormat =
+            new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+    private final StringBuilder batch = new StringBuilder();
+    private int batchEvents;
+    private long batchDropped;
+    private OutputStream out;
+    private long fileSize;
+    private Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * @param file audit log file
+     * @param capacity ring buffer capacity, rounded up to power of two
+     * @param maxFileSize log file size after which it is rolled over
+     * @param maxFiles number of log files to keep, including the current one
+     */
+    public AuthAuditLog(File file, int capacity, long maxFileSize, int maxFiles) {
+        if (capacity <= 0 || maxFileSize <= 0 || maxFiles <= 0) {
+            throw new IllegalArgumentException("Invalid audit log parameters");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.times = new long[size];
+        this.events = new Event[size];
+        this.users = new String[size];
+        this.addresses = new String[size];
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * Starts background writer thread.
+     */
+    public synchronized void start() {
+        if (writer != null || closed)
+            return;
+        writer = new Thread("htpasswd audit log writer") {
+            @Override
+            public void run() {
+                long retryPark = 0L;
+                while (!closed) {
+                    try {
+                        int count = flush();
+                        if (retryPark != 0L) {
+                            logger.info("Resumed writing audit log " + file);
+                            retryPark = 0L;
+                        }
+                        if (count == 0) {
+                            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                        }
+                    } catch (Exception ex) {
+                        // warn once, then retry less and less often
+                        if (retryPark == 0L) {
+                            logger.log(Level.WARNING, "Failed to write audit log " + file
+                                    + ", events are dropped until it is writable", ex);
+                            retryPark = IDLE_PARK_NANOS;
+                        } else {
+                            retryPark = Math.min(retryPark * 2, MAX_RETRY_PARK_NANOS);
+                        }
+                        closeFile();
+                        LockSupport.parkNanos(this, retryPark);
+                    }
+                }
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops background writer thread and writes out all pending events.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+            try {
+                writer.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            flush();
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Failed to write audit log " + file, ex);
+        } finally {
+            closeFile();
+        }
+    }
+
+    /**
+     * Records authentication event. Never blocks - if the buffer is full,
+     * the event is dropped.
+     *
+     * @param event event type
+     * @param user user name
+     * @param address remote address, may be <code>null</code>
+     * @return <code>true</code> if event was queued, <code>false</code> if dropped
+     */
+    public boolean record(Event event, String user, String address) {
+        long pos;
+        int i;
+        while (true) {
+            pos = head.get();
+            i = (int)pos & mask;
+            long diff = sequences.get(i) - pos;
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1))
+                    break;
+            } else if (diff < 0) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+        times[i] = System.currentTimeMillis();
+        events[i] = event;
+        users[i] = user;
+        addresses[i] = address;
+        sequences.set(i, pos + 1);
+        return true;
+    }
+
+    /**
+     * @return number of events dropped due to full buffer
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes pending events to the log file. Called by the writer thread only.
+     * Events are only taken from the buffer once the log file is open; if
+     * writing them fails, they are counted as dropped.
+     *
+     * @return number of events written
+     */
+    private int flush() throws IOException {
+        int total = 0;
+        int count;
+        do {
+            if (!isPending())
+                break;
+            if (out == null) {
+                open();
+            }
+            count = drain();
+            if (batch.length() > 0) {
+                try {
+                    write();
+                } catch (IOException ex) {
+                    dropped.addAndGet(batchEvents);
+                    droppedReported -= batchDropped;
+                    throw ex;
+                } finally {
+                    batch.setLength(0);
+                }
+            }
+            total += count;
+        } while (count == BATCH_SIZE);
+        return total;
+    }
+
+    private boolean isPending() {
+        return sequences.get((int)tail & mask) == tail + 1 || dropped.get() != droppedReported;
+    }
+
+    private int drain() {
+        int count = 0;
+        long droppedNow = dropped.get();
+        batchDropped = droppedNow - droppedReported;
+        if (batchDropped != 0) {
+            batch.append(dateFormat.format(new Date())).append(" DROPPED count=")
+                    .append(batchDropped).append('\n');
+            droppedReported = droppedNow;
+        }
+        while (count < BATCH_SIZE) {
+            int i = (int)tail & mask;
+            if (sequences.get(i) != tail + 1)
+                break;
+            batch.append(dateFormat.format(new Date(times[i]))).append(' ')
+                    .append(events[i]).append(" user=");
+            appendQuoted(batch, users[i]);
+            batch.append(" address=");
+            appendQuoted(batch, addresses[i]);
+            batch.append('\n');
+            events[i] = null;
+            users[i] = null;
+            addresses[i] = null;
+            sequences.lazySet(i, tail + mask + 1);
+            tail++;
+            count++;
+        }
+        batchEvents = count;
+        return count;
+    }
+
+    /**
+     * Appends the value in double quotes, escaping quotes, backslashes and
+     * control characters, so that user supplied values cannot forge records.
+     * <code>null</code> is written as <code>-</code>.
+     */
+    static void appendQuoted(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append('-');
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+            case '\\':
+                sb.append('\\').append(c);
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (Character.isISOControl(c) || c == '\u2028' || c == '\u2029') {
+                    sb.append(String.format("\\u%04x", (int)c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private void open() throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory()) {
+            dir.mkdirs();
+        }
+        out = new FileOutputStream(file, true);
+        fileSize = file.length();
+    }
+
+    private void write() throws IOException {
+        byte[] data = batch.toString().getBytes(UTF8);
+        out.write(data);
+        fileSize += data.length;
+        if (fileSize >= maxFileSize) {
+            roll();
+        }
+    }
+
+    private void roll() {
+        closeFile();
+        File last = new File(file.getPath() + "." + (maxFiles - 1));
+        if (last.exists()) {
+            last.delete();
+        }
+        for (int n = maxFiles - 2; n >= 1; n--) {
+            File f = new File(file.getPath() + "." + n);
+            if (f.exists()) {
+                f.renameTo(new File(file.getPath() + "." + (n + 1)));
+            }
+        }
+        if (maxFiles > 1) {
+            file.renameTo(new File(file.getPath() + ".1"));
+        } else {
+            file.delete();
+        }
+    }
+
+    private void closeFile() {
+        try {
+            if (out != null)
+                out.close();
+        } catch (Exception ignored) {
+        }
+        out = null;
+    }
+}
@@ -23,24 +23,32 @@
  */
 package org.jenkinsci.plugins.htpasswd;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.logging.Logger;
 
 /**
  * Utility container for the {@link HtFile} instance, which would maintain
  * auto-reloading cached data of the given file.
+ * <p>
+ * Modified file is loaded into a new {@link HtFile} instance, which then
+ * replaces the cached one, so concurrent readers always see either complete
+ * old or complete new data. Up to date cached data is returned without
+ * locking.
  *
  * @author kesha
  */
-public class CachedHtFile<T extends HtFile> {
+public class CachedHtFile<T extends HtFile> implements HtFileSource<T> {
     private static final Logger logger = Logger.getLogger("htpasswd-htfile-cache");
 
-    private T htFile;
-    private long lastModified;
+    private static final int MAX_UPDATE_ATTEMPTS = 3;
+
+    private volatile T htFile;
+    private volatile long lastModified;
+    private T retired;
     private String fileName;
-    private Class<T> clazz;
+    private Class<? extends T> clazz;
 
     /**
      * Creates cache instance for the given file type (htpasswd, htgroups etc).
@@ -48,7 +56,7 @@ public class CachedHtFile<T extends HtFile> {
      * @param fileName name of the file to cache info for
      * @param clazz class of the specific file type handling instance
      */
-    public CachedHtFile(String fileName, Class<T> clazz) {
+    public CachedHtFile(String fileName, Class<? extends T> clazz) {
         this.htFile = null;
         this.lastModified = 0L;
         this.fileName = fileName;
@@ -63,10 +71,21 @@ public class CachedHtFile<T extends HtFile> {
      * @throws IOException on backed file load/reload operation failures
      * @throws ReflectiveOperationException on any instance creation failure
      */
+    @Override
     public T get() throws IOException, ReflectiveOperationException {
-        FileReader reader = null;
         File f = new File(fileName);
 
+        // if modification time matches the one recorded earlier -
+        // return cached info
+        T cached = htFile;
+        if ((cached != null) && (f.lastModified() == lastModified)) {
+            return cached;
+        }
+
+        return reload(f);
+    }
+
+    private synchronized T reload(File f) throws IOException, ReflectiveOperationException {
         // if we cannot access the file for some reason
         // and have a cached info, return cached info
         if (!f.exists() || !f.isFile() || !f.canRead()) {
@@ -78,39 +97,83 @@ public class CachedHtFile<T extends HtFile> {
             }
         }
 
-        // if modification time matches the one recorded earlier -
-        // return cached info
-        if ((f.lastModified() == lastModified) && (htFile != null)) {
+        // another thread might have reloaded the file already
+        long modified = f.lastModified();
+        if ((modified == lastModified) && (htFile != null)) {
             return htFile;
         }
 
         try {
-            reader = new FileReader(f);
-
-            if (htFile == null) {
-                htFile = clazz.newInstance();
-            } else {
-                htFile.clear();
+            T fresh = clazz.newInstance();
+            if (htFile != null) {
                 logger.info("Modification detected on " + fileName
                         + " - reloading...");
             }
 
-            htFile.load(reader);
-            lastModified = f.lastModified();
-            return htFile;
+            fresh.load(f);
+            // readers may still be using the replaced instance for a while,
+            // so it is closed on the next reload
+            close(retired);
+            retired = htFile;
+            htFile = fresh;
+            lastModified = modified;
+            return fresh;
         } catch (IOException ex) {
             lastModified = 0L;
+            close(retired);
+            retired = htFile;
             htFile = null;
             throw ex;
         } catch (ReflectiveOperationException ex) {
             logger.throwing("CachedHtFile", "get()", ex);
             throw ex;
-        } finally {
-            try {
-                if (reader != null)
-                    reader.close();
-            } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Releases resources held by the retired instance, such as the file
+     * kept open by {@link LazyHtPasswdFile}.
+     */
+    private static void close(HtFile file) {
+        try {
+            if (file instanceof Closeable)
+                ((Closeable)file).close();
+        } catch (IOException ex) {
+            logger.warning("Failed to close " + file + ": " + ex);
+        }
+    }
+
+    /**
+     * Writes the given entry to the backed file and applies the same change
+     * to the cached {@link HtFile} instance, so no reload is necessary.
+     * If the file is modified by someone else meanwhile, it is not replaced -
+     * changes are reloaded and the entry is written again instead.
+     *
+     * @param key entry key (user or group name)
+     * @param value new entry value, or <code>null</code> to remove the entry
+     * @throws IOException on backed file load/write operation failures
+     * @throws ReflectiveOperationException on any instance creation failure
+     * @see HtFile#writeEntry(File, String, String)
+     */
+    public synchronized void update(String key, String value)
+            throws IOException, ReflectiveOperationException {
+        File f = new File(fileName);
+        for (int attempt = 1; ; attempt++) {
+            T file = get();
+            long modified = HtFile.writeEntry(f, key, value, lastModified);
+            if (modified != -1L) {
+                if (value == null) {
+                    file.remove(key);
+                } else {
+                    file.put(key, value);
+                }
+                lastModified = modified;
+                return;
+            }
+            if (attempt == MAX_UPDATE_ATTEMPTS) {
+                throw new IOException("File " + fileName + " keeps being modified, giving up update");
             }
+            logger.info("Concurrent modification detected on " + fileName + " - reloading...");
         }
     }
 }
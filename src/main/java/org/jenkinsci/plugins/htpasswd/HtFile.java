@@ -24,10 +24,20 @@
 package org.jenkinsci.plugins.htpasswd;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.logging.Logger;
 
 /**
  * Simple htpasswd/htgroup file format parser.
@@ -36,6 +46,8 @@ import java.io.Reader;
  * @author kesha
  */
 public abstract class HtFile {
+    private static final Logger logger = Logger.getLogger("htpasswd-htfile");
+
     protected boolean clearOnLoad = true;
 
     public HtFile() {
@@ -57,6 +69,21 @@ public abstract class HtFile {
         load(new InputStreamReader(stream));
     }
 
+    /**
+     * Loads htpasswd/htgroup info from given file.
+     *
+     * @param file htpasswd/htgroup formatted file
+     * @throws IOException on any I/O error
+     */
+    public synchronized void load(File file) throws IOException {
+        FileReader reader = new FileReader(file);
+        try {
+            load(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
     /**
      * Loads htpasswd/htgroup info using given reader.
      * Reader remains open after operation.
@@ -75,8 +102,171 @@ public abstract class HtFile {
     }
 
     public abstract void put(String key, String value);
+    public abstract void remove(String key);
     public abstract void clear();
 
+    /**
+     * Replaces the entry for the given key in htpasswd/htgroup formatted file.
+     * The first line with the given key is replaced and any later duplicates
+     * are dropped; the entry is appended if the key is not present yet.
+     * Comments and other entries are preserved as is. The file is replaced
+     * atomically - new contents are written to a temporary file in the same
+     * directory which is then renamed over the original. Permissions, owner
+     * and group of the original file are carried over on POSIX file systems.
+     *
+     * @param file htpasswd/htgroup file to update
+     * @param key entry key (user or group name)
+     * @param value new entry value, or <code>null</code> to remove the entry
+     * @throws IOException on any I/O error
+     */
+    public static void writeEntry(File file, String key, String value) throws IOException {
+        writeEntry(file, key, value, -1L);
+    }
+
+    /**
+     * Same as {@link #writeEntry(File, String, String)}, but leaves the file
+     * untouched if its modification time is not the expected one just before
+     * it would be replaced, that is - the file was changed by someone else.
+     *
+     * @param expectedModified expected modification time of the file,
+     * <code>-1</code> to replace it unconditionally
+     * @return modification time of the replaced file, or <code>-1</code>
+     * if the file was modified concurrently and was not replaced
+     */
+    static long writeEntry(File file, String key, String value, long expectedModified)
+            throws IOException {
+        checkEntry(key, value);
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        BufferedReader reader = null;
+        BufferedWriter writer = null;
+        try {
+            boolean written = (value == null);
+            writer = new BufferedWriter(new FileWriter(tmp));
+            if (file.exists()) {
+                reader = new BufferedReader(new FileReader(file));
+                String line = null;
+                while ((line = reader.readLine()) != null) {
+                    if (key.equals(getKey(line))) {
+                        if (written)
+                            continue;
+                        line = key + ":" + value;
+                        written = true;
+                    }
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+            if (!written) {
+                writer.write(key + ":" + value);
+                writer.newLine();
+            }
+            writer.close();
+            writer = null;
+
+            if (file.exists()) {
+                copyAttributes(file, tmp);
+            }
+            if (expectedModified != -1L && file.lastModified() != expectedModified) {
+                return -1L;
+            }
+            // rename keeps the modification time of the new file
+            long modified = tmp.lastModified();
+            try {
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            return modified;
+        } finally {
+            try {
+                if (reader != null)
+                    reader.close();
+                if (writer != null)
+                    writer.close();
+            } catch (Exception ignored) {
+            }
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Copies POSIX permissions, owner and group of the file to its replacement.
+     * Permissions are always copied, while changing owner/group may be not
+     * permitted - then only a warning is logged.
+     */
+    private static void copyAttributes(File from, File to) throws IOException {
+        PosixFileAttributeView source =
+                Files.getFileAttributeView(from.toPath(), PosixFileAttributeView.class);
+        PosixFileAttributeView target =
+                Files.getFileAttributeView(to.toPath(), PosixFileAttributeView.class);
+        if (source == null || target == null)
+            return;
+
+        PosixFileAttributes attrs = source.readAttributes();
+        target.setPermissions(attrs.permissions());
+        try {
+            if (!attrs.group().equals(target.readAttributes().group()))
+                target.setGroup(attrs.group());
+            if (!attrs.owner().equals(target.getOwner()))
+                target.setOwner(attrs.owner());
+        } catch (IOException ex) {
+            logger.warning(String.format("Cannot preserve owner %s:%s of %s: %s",
+                    attrs.owner().getName(), attrs.group().getName(), from, ex));
+        }
+    }
+
+    /**
+     * Checks that the given name can be used as entry key or htgroup member.
+     *
+     * @param key user or group name
+     * @throws IllegalArgumentException if name is empty or contains
+     * whitespace, <code>:</code> or starts with <code>#</code>
+     */
+    static void checkKey(String key) {
+        if (key == null || key.isEmpty() || key.startsWith("#")
+                || key.indexOf(':') != -1 || hasWhitespace(key)) {
+            throw new IllegalArgumentException("Invalid name: " + key);
+        }
+    }
+
+    private static void checkEntry(String key, String value) {
+        checkKey(key);
+        if (value != null && (value.trim().isEmpty()
+                || value.indexOf('\n') != -1 || value.indexOf('\r') != -1)) {
+            throw new IllegalArgumentException("Invalid value for entry " + key);
+        }
+    }
+
+    private static boolean hasWhitespace(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isWhitespace(s.charAt(i)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Extracts the entry key from htpasswd/htgroup formatted line.
+     *
+     * @return entry key, or <code>null</code> for comments and malformed lines
+     */
+    private static String getKey(String line) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#"))
+            return null;
+        int pos = line.indexOf(':');
+        if (pos == -1)
+            return null;
+        return line.substring(0, pos).trim();
+    }
+
     protected void loadInternal(BufferedReader reader) throws IOException {
         String line = null;
         if (this.clearOnLoad) {
@@ -0,0 +1,43 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2014, Kestutis Kupciunas (aka kesha)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.htpasswd;
+
+import java.io.IOException;
+
+/**
+ * Source of the {@link HtFile} data, which keeps it up to date with the
+ * backing storage.
+ *
+ * @author kesha
+ */
+public interface HtFileSource<T extends HtFile> {
+    /**
+     * Returns {@link HtFile} instance with most fresh info available.
+     *
+     * @return {@link HtFile} instance, ready to be queried for data
+     * @throws IOException on data load/reload operation failures
+     * @throws ReflectiveOperationException on any instance creation failure
+     */
+    T get() throws IOException, ReflectiveOperationException;
+}
@@ -24,10 +24,12 @@
 package org.jenkinsci.plugins.htpasswd;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * htgroup file parser.
@@ -35,7 +37,7 @@ import java.util.StringTokenizer;
  * @author kesha (Kestutis Kupciunas)
  */
 public class HtGroupFile extends HtFile {
-    protected HashMap<String, List<String>> entries = new HashMap<String, List<String>>();
+    protected Map<String, List<String>> entries = new ConcurrentHashMap<String, List<String>>();
 
     @Override
     public void put(String key, String value) {
@@ -43,34 +45,131 @@ public class HtGroupFile extends HtFile {
             return;
         }
 
-        ArrayList<String> users = new ArrayList<String>();
+        // users listed more than once are kept only once
+        LinkedHashSet<String> users = new LinkedHashSet<String>();
         StringTokenizer tok = new StringTokenizer(value);
         while (tok.hasMoreTokens()) {
             users.add(tok.nextToken());
         }
 
         if (!users.isEmpty()) {
-            entries.put(key, users);
+            entries.put(key, new MemberList(users));
         }
     }
 
+    @Override
+    public void remove(String key) {
+        entries.remove(key);
+    }
+
     @Override
     public void clear() {
         entries.clear();
     }
 
+    /**
+     * Builds htgroup entry value for the given group with the given user added.
+     *
+     * @param group group name
+     * @param user user to add
+     * @return new entry value for the group
+     * @throws IllegalArgumentException if user name is not valid htgroup member
+     */
+    public String getValueWithUser(String group, String user) {
+        checkKey(user);
+        List<String> users = entries.get(group);
+        if (users == null) {
+            return user;
+        }
+        if (users.contains(user)) {
+            return join(users, null);
+        }
+        return join(users, null) + " " + user;
+    }
+
+    /**
+     * Builds htgroup entry value for the given group with the given user removed.
+     *
+     * @param group group name
+     * @param user user to remove
+     * @return new entry value for the group, or <code>null</code> if the
+     * group would have no members left
+     */
+    public String getValueWithoutUser(String group, String user) {
+        List<String> users = entries.get(group);
+        if (users == null) {
+            return null;
+        }
+        String value = join(users, user);
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String join(List<String> users, String skip) {
+        StringBuilder sb = new StringBuilder();
+        for (String user : users) {
+            if (user.equals(skip))
+                continue;
+            if (sb.length() > 0)
+                sb.append(' ');
+            sb.append(user);
+        }
+        return sb.toString();
+    }
+
 
     /**
      * Returns members of the given group.
      *
      * @param group group name
-     * @return list of user names that belong to the given group (or
-     * <code>null</code> if given group does not exist)
+     * @return read-only list of unique user names that belong to the given
+     * group (or <code>null</code> if given group does not exist)
      */
     public List<String> getUsers(String group) {
         return entries.get(group);
     }
 
+    /**
+     * Returns a page of members of the given group. The returned list is a
+     * read-only view backed by the loaded group entry, no copy is made.
+     *
+     * @param group group name
+     * @param offset index of the first member to return
+     * @param limit maximum number of members to return
+     * @return read-only list of at most <code>limit</code> user names (empty
+     * if <code>offset</code> is past the end of the group), or
+     * <code>null</code> if given group does not exist
+     */
+    public List<String> getUsers(String group, int offset, int limit) {
+        List<String> users = entries.get(group);
+        if (users == null) {
+            return null;
+        }
+        return page(users, offset, limit);
+    }
+
+    /**
+     * Returns a read-only view of the given part of the member list.
+     */
+    static List<String> page(List<String> users, int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+        int from = Math.min(offset, users.size());
+        int to = (int)Math.min((long)from + limit, users.size());
+        return users.subList(from, to);
+    }
+
+    /**
+     * Returns the number of members of the given group.
+     *
+     * @param group group name
+     * @return member count, <code>0</code> if given group does not exist
+     */
+    public int getUserCount(String group) {
+        List<String> users = entries.get(group);
+        return (users == null) ? 0 : users.size();
+    }
+
     /**
      * Returns group list that given user belongs to.
      *
@@ -23,7 +23,12 @@
  */
 package org.jenkinsci.plugins.htpasswd;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.digest.Crypt;
@@ -35,24 +40,73 @@ import org.apache.commons.codec.digest.Md5Crypt;
  * <ul>
  *  <li> MD5 ($apr1$)
  *  <li> SHA1 ({SHA})
+ *  <li> SHA-256 crypt ($5$) and SHA-512 crypt ($6$)
  *  <li> CRYPT (unix crypt)
  * </ul>
+ * SHA-256/SHA-512 crypt entries using more rounds than allowed by
+ * <code>org.jenkinsci.plugins.htpasswd.HtPasswdFile.maxCryptRounds</code>
+ * system property are rejected on load.
  * BCRYPT has is not supported yet, because jbcrypt library uses $2a$ salt
  * revision, while apache htpasswd generates passwords using $2y$ salt revision
  *
  * @author kesha (Kestutis Kupciunas)
  */
 public class HtPasswdFile extends HtFile {
-    protected HashMap<String, String> entries = new HashMap<String, String>();
+    private static final Logger logger = Logger.getLogger("htpasswd-htpasswd-file");
+
+    /**
+     * Maximum number of SHA-256/SHA-512 crypt rounds accepted. Verification
+     * runs on request threads, so the default, 20 times the crypt(3) default
+     * of 5000 rounds, keeps a single check well under 100ms.
+     */
+    protected static final int MAX_CRYPT_ROUNDS =
+            Integer.getInteger(HtPasswdFile.class.getName() + ".maxCryptRounds", 100000);
+
+    private static final AtomicLongArray verifyCount =
+            new AtomicLongArray(Algorithm.values().length);
+    private static final AtomicLongArray verifyNanos =
+            new AtomicLongArray(Algorithm.values().length);
+
+    protected Map<String, String> entries = new ConcurrentHashMap<String, String>();
 
     @Override
     public void put(String key, String value) {
         if (key.isEmpty() || value.isEmpty()) {
             return;
         }
+        if (!isAcceptable(key, value)) {
+            return;
+        }
         entries.put(key, value);
     }
 
+    /**
+     * Checks whether the hashed password entry is safe to verify against.
+     * Entries which would take excessive time to verify are rejected.
+     *
+     * @param user user name
+     * @param hashed hashed password entry
+     * @return <code>false</code> if entry should be ignored
+     */
+    protected static boolean isAcceptable(String user, String hashed) {
+        Algorithm algo = getPasswordAlgorithm(hashed);
+        if (algo != Algorithm.SHA256_CRYPT && algo != Algorithm.SHA512_CRYPT) {
+            return true;
+        }
+        int rounds = ShaCrypt.getRounds(hashed);
+        if (rounds < 0 || rounds > MAX_CRYPT_ROUNDS) {
+            logger.warning(String.format("Ignoring user '%s': malformed %s hash or "
+                    + "more than %d rounds", user, algo, MAX_CRYPT_ROUNDS));
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void remove(String key) {
+        entries.remove(key);
+    }
+
     @Override
     public void clear() {
         entries.clear();
@@ -66,9 +120,23 @@ public class HtPasswdFile extends HtFile {
      * if given user does not exist)
      */
     public String getPassword(String user) {
+        if (user == null)
+            return null;
         return entries.get(user);
     }
 
+    /**
+     * Hashes the given plain text password for storing in htpasswd file.
+     * Passwords are hashed using apache MD5 ($apr1$) with random salt, which
+     * is the default of the htpasswd utility.
+     *
+     * @param password plain text password
+     * @return hashed password entry
+     */
+    public static String hashPassword(String password) {
+        return Md5Crypt.apr1Crypt(password);
+    }
+
     /**
      * Validates the hashed password of the given user against plain text password.
      *
@@ -83,22 +151,86 @@ public class HtPasswdFile extends HtFile {
 
         Algorithm algo = getPasswordAlgorithm(hashed);
 
-        switch (algo) {
-        case MD5:
-            return validateMd5Password(hashed, password);
-        case SHA:
-            return validateShaPassword(hashed, password);
-        case CRYPT:
-            return validateCryptPassword(hashed, password);
-        case BCRYPT:
-            // Bcrypt currently unsupported, as jbcrypt uses $2a$ salt revision
-            // and htpasswd utility hashes passwords with $2y$ salt revision
-            //return BCrypt.checkpw(password, hashed);
-        default:
-            throw new IllegalStateException("Unsupported password format: " + algo);
+        long started = System.nanoTime();
+        try {
+            switch (algo) {
+            case MD5:
+                return validateMd5Password(hashed, password);
+            case SHA:
+                return validateShaPassword(hashed, password);
+            case SHA256_CRYPT:
+            case SHA512_CRYPT:
+                return ShaCrypt.verify(hashed, password, MAX_CRYPT_ROUNDS);
+            case CRYPT:
+                return validateCryptPassword(hashed, password);
+            case BCRYPT:
+                // Bcrypt currently unsupported, as jbcrypt uses $2a$ salt revision
+                // and htpasswd utility hashes passwords with $2y$ salt revision
+                //return BCrypt.checkpw(password, hashed);
+            default:
+                throw new IllegalStateException("Unsupported password format: " + algo);
+            }
+        } finally {
+            verifyCount.incrementAndGet(algo.ordinal());
+            verifyNanos.addAndGet(algo.ordinal(), System.nanoTime() - started);
         }
     }
 
+    /**
+     * Password verification statistics of a single hash algorithm.
+     */
+    public static final class VerificationStats {
+        private final String algorithm;
+        private final long count;
+        private final long totalNanos;
+
+        VerificationStats(String algorithm, long count, long totalNanos) {
+            this.algorithm = algorithm;
+            this.count = count;
+            this.totalNanos = totalNanos;
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getAverageNanos() {
+            return (count == 0) ? 0 : totalNanos / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d verifications, %d ns average",
+                    algorithm, count, getAverageNanos());
+        }
+    }
+
+    /**
+     * Returns password verification count and time spent, per hash algorithm,
+     * since Jenkins start.
+     *
+     * @return statistics of the algorithms used at least once
+     */
+    public static List<VerificationStats> getVerificationStats() {
+        List<VerificationStats> stats = new ArrayList<VerificationStats>();
+        for (Algorithm algo : Algorithm.values()) {
+            long count = verifyCount.get(algo.ordinal());
+            if (count > 0) {
+                stats.add(new VerificationStats(algo.name(), count,
+                        verifyNanos.get(algo.ordinal())));
+            }
+        }
+        return stats;
+    }
+
     private static boolean validateMd5Password(String hashed, String plain) {
         String result = Md5Crypt.apr1Crypt(plain, hashed);
         return hashed.equals(result);
@@ -118,6 +250,8 @@ public class HtPasswdFile extends HtFile {
     protected enum Algorithm {
         MD5,
         SHA,
+        SHA256_CRYPT,
+        SHA512_CRYPT,
         CRYPT,
         BCRYPT,
         UNKNOWN
@@ -133,6 +267,12 @@ public class HtPasswdFile extends HtFile {
         if (passwd.startsWith("{SHA}")) {
             return Algorithm.SHA;
         }
+        if (passwd.startsWith(ShaCrypt.SHA256_PREFIX)) {
+            return Algorithm.SHA256_CRYPT;
+        }
+        if (passwd.startsWith(ShaCrypt.SHA512_PREFIX)) {
+            return Algorithm.SHA512_CRYPT;
+        }
         if (passwd.startsWith("$2a$") || passwd.startsWith("$2x$") || passwd.startsWith("$2y$")) {
             return Algorithm.BCRYPT;
         }
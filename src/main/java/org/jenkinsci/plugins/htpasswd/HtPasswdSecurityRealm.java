@@ -24,16 +24,22 @@
 package org.jenkinsci.plugins.htpasswd;
 
 import hudson.Extension;
+import hudson.init.Terminator;
 import hudson.model.Descriptor;
 import hudson.security.AbstractPasswordBasedSecurityRealm;
 import hudson.security.GroupDetails;
 import hudson.security.SecurityRealm;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import jenkins.model.Jenkins;
+
 import org.acegisecurity.AuthenticationException;
 import org.acegisecurity.BadCredentialsException;
 import org.acegisecurity.GrantedAuthority;
@@ -42,6 +48,8 @@ import org.acegisecurity.userdetails.User;
 import org.acegisecurity.userdetails.UserDetails;
 import org.acegisecurity.userdetails.UsernameNotFoundException;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
 import org.springframework.dao.DataAccessException;
 
 /**
@@ -51,6 +59,100 @@ import org.springframework.dao.DataAccessException;
 public class HtPasswdSecurityRealm extends AbstractPasswordBasedSecurityRealm {
     private static final Logger logger = Logger.getLogger("htpasswd-security-realm");
 
+    /**
+     * Number of failed logins per user name or remote address after which
+     * further attempts are rejected without checking the password.
+     * <code>0</code> disables throttling.
+     */
+    private static final int THROTTLE_MAX_FAILURES =
+            getIntProperty("throttleMaxFailures", 10, 0, LoginThrottle.MAX_FAILURES);
+    /**
+     * Seconds it takes to forget a single failed login.
+     */
+    private static final int THROTTLE_DECAY_SECONDS =
+            getIntProperty("throttleDecaySeconds", 30, 1, 24 * 60 * 60);
+    /**
+     * Number of failure tracking slots per key type.
+     */
+    private static final int THROTTLE_TABLE_SIZE =
+            getIntProperty("throttleTableSize", 4096, 1, 1 << 24);
+
+    /**
+     * Throttle failed logins per remote address too. Should be disabled if
+     * Jenkins is behind a reverse proxy or NAT which does not pass client
+     * address in <code>X-Forwarded-For</code> header, since then all clients
+     * share one address.
+     */
+    private static final boolean THROTTLE_BY_ADDRESS = Boolean.parseBoolean(
+            System.getProperty(HtPasswdSecurityRealm.class.getName() + ".throttleByAddress", "true"));
+    /**
+     * Take remote address from the last <code>X-Forwarded-For</code> header
+     * entry, as added by the trusted reverse proxy in front of Jenkins.
+     * Must only be enabled if Jenkins is reachable through the proxy only,
+     * otherwise clients may pick any address.
+     */
+    private static final boolean TRUST_FORWARDED_FOR =
+            Boolean.getBoolean(HtPasswdSecurityRealm.class.getName() + ".trustForwardedFor");
+
+    // keyed by user name and remote address
+    private static final LoginThrottle userThrottle = new LoginThrottle(
+            THROTTLE_TABLE_SIZE, THROTTLE_MAX_FAILURES, THROTTLE_DECAY_SECONDS * 1000L);
+    private static final LoginThrottle addressThrottle = new LoginThrottle(
+            THROTTLE_TABLE_SIZE, THROTTLE_MAX_FAILURES, THROTTLE_DECAY_SECONDS * 1000L);
+
+    /**
+     * Authentication audit log file, defaults to
+     * <code>$JENKINS_HOME/logs/htpasswd-audit.log</code>.
+     * Empty value disables audit logging.
+     */
+    private static final String AUDIT_LOG =
+            System.getProperty(HtPasswdSecurityRealm.class.getName() + ".auditLog");
+    private static final int AUDIT_BUFFER_SIZE =
+            getIntProperty("auditBufferSize", 8192, 1, 1 << 24);
+    private static final long AUDIT_MAX_FILE_SIZE = 10L * 1024 * 1024;
+    private static final int AUDIT_MAX_FILES = 5;
+
+    /**
+     * Minimal interval between modification checks of htpasswd/htgroups
+     * files located on http(s) URLs.
+     */
+    private static final int REMOTE_REFRESH_SECONDS =
+            Integer.getInteger(HtPasswdSecurityRealm.class.getName() + ".remoteRefreshSeconds", 60);
+
+    /**
+     * Allow loading htpasswd/htgroups files over plain http. Off by default,
+     * since anyone on the network path could then read the password hashes
+     * or substitute the file with their own users and groups.
+     */
+    private static final boolean ALLOW_INSECURE_REMOTE =
+            Boolean.getBoolean(HtPasswdSecurityRealm.class.getName() + ".allowInsecureRemote");
+
+    /**
+     * Index local htpasswd file and decode user entries on first use,
+     * instead of loading all of them, see {@link LazyHtPasswdFile}.
+     */
+    private static final boolean LAZY_LOAD =
+            Boolean.getBoolean(HtPasswdSecurityRealm.class.getName() + ".lazyLoad");
+
+    private static volatile AuthAuditLog auditLog;
+    private static volatile boolean auditLogInitialized;
+
+    /**
+     * Reads integer system property of this class, clamping it to the given
+     * range - a bad value must not prevent the security realm from loading.
+     */
+    private static int getIntProperty(String name, int defaultValue, int min, int max) {
+        String property = HtPasswdSecurityRealm.class.getName() + "." + name;
+        int value = Integer.getInteger(property, defaultValue);
+        if (value < min || value > max) {
+            int clamped = Math.max(min, Math.min(max, value));
+            logger.warning(String.format("%s=%d is out of range [%d, %d], using %d",
+                    property, value, min, max, clamped));
+            return clamped;
+        }
+        return value;
+    }
+
     private final String htpasswdLocation;
     private final String htgroupsLocation;
 
@@ -76,24 +178,129 @@ public class HtPasswdSecurityRealm extends AbstractPasswordBasedSecurityRealm {
         public String getDisplayName() {
             return "htpasswd";
         }
+
+        /**
+         * Shown on the security configuration page, so administrators can
+         * see what password verification costs.
+         *
+         * @return password verification statistics per hash algorithm
+         */
+        public List<HtPasswdFile.VerificationStats> getVerificationStats() {
+            return HtPasswdFile.getVerificationStats();
+        }
     }
 
-    private CachedHtFile<HtPasswdFile> cachedHtPasswdFile = null;
+    private static <T extends HtFile> HtFileSource<T> createSource(String location, Class<? extends T> clazz)
+            throws IOException {
+        if (location.startsWith("http://")) {
+            if (!ALLOW_INSECURE_REMOTE) {
+                throw new IOException("Refusing to load " + location + " over plain http, use https"
+                        + " or set " + HtPasswdSecurityRealm.class.getName() + ".allowInsecureRemote=true");
+            }
+            logger.warning("Loading " + location + " over plain http - credentials can be read or"
+                    + " replaced by anyone on the network path, use https instead");
+            return new RemoteHtFile<T>(new URL(location), clazz, REMOTE_REFRESH_SECONDS * 1000L);
+        }
+        if (location.startsWith("https://")) {
+            return new RemoteHtFile<T>(new URL(location), clazz, REMOTE_REFRESH_SECONDS * 1000L);
+        }
+        return new CachedHtFile<T>(location, clazz);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends HtFile> CachedHtFile<T> getWritable(HtFileSource<T> source)
+            throws IOException {
+        if (!(source instanceof CachedHtFile)) {
+            throw new IOException("Remote htpasswd/htgroups files are read-only");
+        }
+        return (CachedHtFile<T>)source;
+    }
+
+    private transient volatile HtFileSource<HtPasswdFile> cachedHtPasswdFile = null;
     private HtPasswdFile getHtPasswdFile() throws IOException, ReflectiveOperationException {
         if (cachedHtPasswdFile == null) {
-            cachedHtPasswdFile = new CachedHtFile<HtPasswdFile>(this.htpasswdLocation, HtPasswdFile.class);
+            synchronized (this) {
+                if (cachedHtPasswdFile == null) {
+                    cachedHtPasswdFile = createSource(this.htpasswdLocation,
+                            LAZY_LOAD ? LazyHtPasswdFile.class : HtPasswdFile.class);
+                }
+            }
         }
         return cachedHtPasswdFile.get();
     }
 
-    private CachedHtFile<HtGroupFile> cachedHtGroupsFile = null;
+    private transient volatile HtFileSource<HtGroupFile> cachedHtGroupsFile = null;
     private HtGroupFile getHtGroupFile() throws IOException, ReflectiveOperationException {
         if (cachedHtGroupsFile == null) {
-            cachedHtGroupsFile = new CachedHtFile<HtGroupFile>(this.htgroupsLocation, HtGroupFile.class);
+            synchronized (this) {
+                if (cachedHtGroupsFile == null) {
+                    cachedHtGroupsFile = createSource(this.htgroupsLocation, HtGroupFile.class);
+                }
+            }
         }
         return cachedHtGroupsFile.get();
     }
 
+    /**
+     * Creates the user or changes password of the existing one. The password
+     * is stored hashed using apache MD5 ($apr1$) algorithm.
+     *
+     * @param username user name
+     * @param password plain text password
+     * @throws IOException on htpasswd file read/write failures
+     * @throws ReflectiveOperationException on any instance creation failure
+     */
+    public synchronized void setPassword(String username, String password)
+            throws IOException, ReflectiveOperationException {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        getHtPasswdFile();
+        getWritable(cachedHtPasswdFile).update(username, HtPasswdFile.hashPassword(password));
+    }
+
+    /**
+     * Removes the user from htpasswd file. Group memberships are left intact.
+     *
+     * @param username user name
+     * @throws IOException on htpasswd file read/write failures
+     * @throws ReflectiveOperationException on any instance creation failure
+     */
+    public synchronized void removeUser(String username)
+            throws IOException, ReflectiveOperationException {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        getHtPasswdFile();
+        getWritable(cachedHtPasswdFile).update(username, null);
+    }
+
+    /**
+     * Adds the user to the group, creating the group if necessary.
+     *
+     * @param username user name
+     * @param groupname group name
+     * @throws IOException on htgroups file read/write failures
+     * @throws ReflectiveOperationException on any instance creation failure
+     */
+    public synchronized void addUserToGroup(String username, String groupname)
+            throws IOException, ReflectiveOperationException {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        HtGroupFile htgroups = getHtGroupFile();
+        getWritable(cachedHtGroupsFile).update(groupname, htgroups.getValueWithUser(groupname, username));
+    }
+
+    /**
+     * Removes the user from the group. Group is removed once it has no members.
+     *
+     * @param username user name
+     * @param groupname group name
+     * @throws IOException on htgroups file read/write failures
+     * @throws ReflectiveOperationException on any instance creation failure
+     */
+    public synchronized void removeUserFromGroup(String username, String groupname)
+            throws IOException, ReflectiveOperationException {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        HtGroupFile htgroups = getHtGroupFile();
+        getWritable(cachedHtGroupsFile).update(groupname, htgroups.getValueWithoutUser(groupname, username));
+    }
+
     private static final GrantedAuthority DEFAULT_AUTHORITY[] =
             new GrantedAuthority[] { AUTHENTICATED_AUTHORITY };
     private static final GrantedAuthority GRANTED_AUTHORITY_TYPE[] =
@@ -135,20 +342,121 @@ public class HtPasswdSecurityRealm extends AbstractPasswordBasedSecurityRealm {
         }
     }
 
+    private static AuthAuditLog getAuditLog() {
+        if (auditLogInitialized)
+            return auditLog;
+
+        synchronized (HtPasswdSecurityRealm.class) {
+            if (!auditLogInitialized) {
+                File file = null;
+                if (AUDIT_LOG != null) {
+                    file = AUDIT_LOG.isEmpty() ? null : new File(AUDIT_LOG);
+                } else {
+                    Jenkins jenkins = Jenkins.getInstance();
+                    if (jenkins == null) {
+                        // not resolvable yet, try again on next event
+                        return null;
+                    }
+                    file = new File(jenkins.getRootDir(), "logs/htpasswd-audit.log");
+                }
+                // whatever happens, audit logging must not break authentication
+                auditLogInitialized = true;
+                if (file != null) {
+                    try {
+                        AuthAuditLog log = new AuthAuditLog(file, AUDIT_BUFFER_SIZE,
+                                AUDIT_MAX_FILE_SIZE, AUDIT_MAX_FILES);
+                        log.start();
+                        auditLog = log;
+                        logger.info("Writing authentication audit log to " + file);
+                    } catch (RuntimeException ex) {
+                        logger.log(Level.WARNING, "Failed to start audit log " + file
+                                + ", audit logging is disabled", ex);
+                    }
+                }
+            }
+            return auditLog;
+        }
+    }
+
+    /**
+     * Writes out pending audit events and stops the audit log writer on
+     * Jenkins shutdown. Events recorded afterwards are not logged.
+     */
+    @Terminator
+    public static void closeAuditLog() {
+        AuthAuditLog log;
+        synchronized (HtPasswdSecurityRealm.class) {
+            log = auditLog;
+            auditLog = null;
+            auditLogInitialized = true;
+        }
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    private static void audit(AuthAuditLog.Event event, String username, String address) {
+        AuthAuditLog log = getAuditLog();
+        if (log != null) {
+            log.record(event, username, address);
+        }
+    }
+
+    private static String getRemoteAddress() {
+        StaplerRequest request = Stapler.getCurrentRequest();
+        if (request == null)
+            return null;
+        if (TRUST_FORWARDED_FOR) {
+            String forwarded = request.getHeader("X-Forwarded-For");
+            if (forwarded != null) {
+                String address = forwarded.substring(forwarded.lastIndexOf(',') + 1).trim();
+                if (!address.isEmpty())
+                    return address;
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
     @Override
     protected UserDetails authenticate(final String username, final String password)
             throws AuthenticationException {
+        return authenticate(username, password, getRemoteAddress(), System.currentTimeMillis());
+    }
+
+    /**
+     * @param address remote address of the client, <code>null</code> if unknown
+     * @param now current time, for throttling
+     */
+    UserDetails authenticate(String username, String password, String address, long now)
+            throws AuthenticationException {
+        // failures of the user from one address do not lock the user out
+        // on other addresses
+        String userKey = (address == null) ? username : username + "@" + address;
+        String addressKey = THROTTLE_BY_ADDRESS ? address : null;
+        if (userThrottle.isBlocked(userKey, now) || addressThrottle.isBlocked(addressKey, now)) {
+            // keep counting attempts made while blocked against the address
+            addressThrottle.recordFailure(addressKey, now);
+            audit(AuthAuditLog.Event.THROTTLED, username, address);
+            String msg = String.format("Too many failed login attempts for user '%s'", username);
+            throw new BadCredentialsException(msg);
+        }
 
         try {
             HtPasswdFile htpasswd = getHtPasswdFile();
             if (htpasswd.isPasswordValid(username, password)) {
+                userThrottle.reset(userKey);
+                audit(AuthAuditLog.Event.SUCCESS, username, address);
                 return new User(username, password,
                         true, true, true, true,
                         getAuthenticatedUserGroups(username));
             }
         } catch (Exception ex) {
+            audit(AuthAuditLog.Event.FAILURE, username, address);
             throw new BadCredentialsException(ex.getMessage());
         }
+        audit(AuthAuditLog.Event.FAILURE, username, address);
+        userThrottle.recordFailure(userKey, now);
+        addressThrottle.recordFailure(addressKey, now);
         String msg = String.format("Invalid user '%s' credentials", username);
         throw new BadCredentialsException(msg);
     }
@@ -175,13 +483,23 @@ public class HtPasswdSecurityRealm extends AbstractPasswordBasedSecurityRealm {
     @Override
     public GroupDetails loadGroupByGroupname(final String groupname)
             throws UsernameNotFoundException, DataAccessException {
-        logger.finest("loadGroupByGroupname(" + groupname + ")");
+        return loadGroupByGroupname(groupname, false);
+    }
+
+    /**
+     * Loads the group, optionally with its members. Members are returned as a
+     * read-only view of the loaded htgroups entry, no copy is made.
+     */
+    @Override
+    public GroupDetails loadGroupByGroupname(final String groupname, boolean fetchMembers)
+            throws UsernameNotFoundException, DataAccessException {
+        logger.finest("loadGroupByGroupname(" + groupname + ", " + fetchMembers + ")");
         try {
             HtGroupFile htgroups = getHtGroupFile();
 
             List<String> users = htgroups.getUsers(groupname);
             if (users != null && !users.isEmpty()) {
-                return new SimpleGroup(groupname);
+                return fetchMembers ? new SimpleGroup(groupname, users) : new SimpleGroup(groupname);
             }
         } catch (Exception ex) {
             String msg = String.format("Failed to load group '%s'", groupname);
@@ -0,0 +1,403 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2014, Kestutis Kupciunas (aka kesha)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.htpasswd;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * htpasswd file parser for huge files, which decodes entries on demand.
+ * <p>
+ * {@link #load(File)} reads the file once, building a compact open
+ * addressing index of user name hash to line offset; no strings are
+ * created and file contents are not kept in memory. Password entry of the
+ * user is read from the file and cached on first lookup, so memory use
+ * depends on the number of users in the index and the number of active
+ * users rather than the file size.
+ * <p>
+ * The loaded file is kept open until the instance is cleared or closed and
+ * entries are read from it with positional reads, so a file replaced by
+ * rename is still read from the loaded version. If the file is rewritten in
+ * place instead, lookups may miss entries until it is reloaded, but the user
+ * name is checked on every read, so entries of other users are never
+ * returned.
+ * <p>
+ * Files are expected to be UTF-8 encoded. Data loaded from readers and
+ * streams is parsed eagerly, as done by {@link HtPasswdFile}.
+ * <p>
+ * Entries are checked with {@link #isAcceptable(String, String)} when
+ * decoded rather than on load.
+ *
+ * @author kesha
+ */
+public class LazyHtPasswdFile extends HtPasswdFile implements Closeable {
+    private static final Logger logger = Logger.getLogger("htpasswd-lazy-htfile");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    // index slots hold line offset + 1 (0 marks empty slot)
+    // and the hash of the user name on that line
+    private volatile FileChannel channel;
+    private File file;
+    private int[] offsets;
+    private int[] hashes;
+
+    // users removed since load, which are still present in the file
+    private final Set<String> removed =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    @Override
+    public synchronized void load(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() >= Integer.MAX_VALUE) {
+                logger.warning("File " + file + " is too large to be indexed, loading it eagerly");
+                channel.close();
+                super.load(file);
+                return;
+            }
+            index(file, channel);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        } catch (RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Scans the file once. The index is kept at most three quarters full,
+     * starting from a size estimated from the file length and growing as
+     * needed, so it ends up proportional to the number of users.
+     */
+    private void index(File file, FileChannel channel) throws IOException {
+        // htpasswd lines are rarely shorter than 48 bytes
+        Index index = new Index(Math.max(16, Integer.highestOneBit((int)(channel.size() / 48)) << 1));
+        ByteBuffer chunk = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        byte[] buf = chunk.array();
+        byte[] line = new byte[256];
+        int length = 0;
+        int lineStart = 0;
+        int pos = 0;
+        int n;
+        while ((n = channel.read(chunk, pos)) >= 0) {
+            for (int i = 0; i < n; i++) {
+                if (buf[i] == '\n') {
+                    indexLine(index, line, length, lineStart);
+                    lineStart = pos + i + 1;
+                    length = 0;
+                } else {
+                    if (length == line.length)
+                        line = Arrays.copyOf(line, length << 1);
+                    line[length++] = buf[i];
+                }
+            }
+            pos += n;
+            chunk.clear();
+        }
+        // the last line may lack terminating newline
+        indexLine(index, line, length, lineStart);
+
+        if (clearOnLoad) {
+            clear();
+        }
+        closeChannel();
+        this.offsets = index.offsets;
+        this.hashes = index.hashes;
+        this.file = file;
+        this.channel = channel;
+    }
+
+    private static void indexLine(Index index, byte[] line, int length, int lineStart) {
+        int start = skipSpace(line, 0, length);
+        int colon = start;
+        while (colon < length && line[colon] != ':')
+            colon++;
+        if (start < length && line[start] != '#' && colon < length
+                && skipSpace(line, colon + 1, length) < length) {
+            int keyEnd = trimEnd(line, start, colon);
+            if (keyEnd > start) {
+                index.add(lineStart + start + 1, hash(line, start, keyEnd));
+            }
+        }
+    }
+
+    /**
+     * Open addressing table being built, see {@link #index(File, FileChannel)}.
+     */
+    private static final class Index {
+        int[] offsets;
+        int[] hashes;
+        int count;
+
+        Index(int capacity) {
+            offsets = new int[capacity];
+            hashes = new int[capacity];
+        }
+
+        void add(int offset, int h) {
+            if (++count > (offsets.length >> 2) * 3) {
+                int[] oldOffsets = offsets;
+                int[] oldHashes = hashes;
+                offsets = new int[oldOffsets.length << 1];
+                hashes = new int[oldOffsets.length << 1];
+                for (int i = 0; i < oldOffsets.length; i++) {
+                    if (oldOffsets[i] != 0)
+                        insert(oldOffsets[i], oldHashes[i]);
+                }
+            }
+            insert(offset, h);
+        }
+
+        private void insert(int offset, int h) {
+            int mask = offsets.length - 1;
+            int slot = mix(h) & mask;
+            while (offsets[slot] != 0)
+                slot = (slot + 1) & mask;
+            offsets[slot] = offset;
+            hashes[slot] = h;
+        }
+    }
+
+    @Override
+    public String getPassword(String user) {
+        if (user == null)
+            return null;
+        String value = entries.get(user);
+        if (value != null || offsets == null || removed.contains(user))
+            return value;
+
+        try {
+            value = lookup(user);
+        } catch (ClosedChannelException ex) {
+            // closed by reload meanwhile, or this thread was interrupted
+            return null;
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Failed to read entry of user " + user, ex);
+            return null;
+        }
+        if (value != null && !isAcceptable(user, value)) {
+            removed.add(user);
+            return null;
+        }
+        if (value != null) {
+            entries.put(user, value);
+            // lost the race with remove()
+            if (removed.contains(user)) {
+                entries.remove(user);
+                return null;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Finds the user entry in the file. If the user is listed more than
+     * once, the last entry is used, same as eager loading does.
+     */
+    private String lookup(String user) throws IOException {
+        int[] offsets = this.offsets;
+        int[] hashes = this.hashes;
+        FileChannel channel = getChannel();
+        if (offsets == null || channel == null)
+            return null;
+
+        int mask = offsets.length - 1;
+        byte[] key = user.getBytes(UTF8);
+        int h = hash(key);
+        int found = -1;
+        String value = null;
+        for (int slot = mix(h) & mask; offsets[slot] != 0; slot = (slot + 1) & mask) {
+            int offset = offsets[slot] - 1;
+            if (hashes[slot] == h && offset > found) {
+                String entry = readEntry(channel, offset, key);
+                if (entry != null) {
+                    found = offset;
+                    value = entry;
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Reads the value of the entry at the given offset, checking that the
+     * entry is still there, since the file might have been rewritten.
+     *
+     * @return entry value, or <code>null</code> if there is no entry with
+     * the given key at the given offset
+     */
+    private static String readEntry(FileChannel channel, int offset, byte[] key) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(key.length + 128);
+        int length = -1;
+        int scanned = 0;
+        while (length == -1) {
+            if (!buf.hasRemaining()) {
+                if (buf.capacity() >= MAX_LINE_LENGTH)
+                    return null;
+                ByteBuffer grown = ByteBuffer.allocate(buf.capacity() << 1);
+                buf.flip();
+                grown.put(buf);
+                buf = grown;
+            }
+            if (channel.read(buf, (long)offset + buf.position()) <= 0) {
+                length = buf.position();
+            }
+            byte[] line = buf.array();
+            for (; length == -1 && scanned < buf.position(); scanned++) {
+                if (line[scanned] == '\n')
+                    length = scanned;
+            }
+        }
+
+        byte[] line = buf.array();
+        if (!matches(line, length, key))
+            return null;
+        int start = key.length;
+        while (line[start] != ':')
+            start++;
+        start = skipSpace(line, start + 1, length);
+        int end = trimEnd(line, start, length);
+        return (end > start) ? new String(line, start, end - start, UTF8) : null;
+    }
+
+    private static boolean matches(byte[] line, int length, byte[] key) {
+        if (key.length >= length)
+            return false;
+        for (int i = 0; i < key.length; i++) {
+            if (line[i] != key[i])
+                return false;
+        }
+        // key must be followed by optional whitespace and the separator
+        int pos = skipSpace(line, key.length, length);
+        return pos < length && line[pos] == ':';
+    }
+
+    /**
+     * Reading thread being interrupted closes the channel for everybody, in
+     * that case the file is opened again by name.
+     */
+    private FileChannel getChannel() throws IOException {
+        FileChannel channel = this.channel;
+        if (channel == null || channel.isOpen())
+            return channel;
+        synchronized (this) {
+            channel = this.channel;
+            if (channel != null && !channel.isOpen()) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                this.channel = channel;
+            }
+            return channel;
+        }
+    }
+
+    @Override
+    public void put(String key, String value) {
+        super.put(key, value);
+        removed.remove(key);
+    }
+
+    @Override
+    public void remove(String key) {
+        removed.add(key);
+        super.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        removed.clear();
+        offsets = null;
+        hashes = null;
+        closeChannel();
+    }
+
+    /**
+     * Closes the loaded file. Entries which were not looked up yet are
+     * not available afterwards.
+     */
+    @Override
+    public void close() {
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        FileChannel channel = this.channel;
+        this.channel = null;
+        try {
+            if (channel != null)
+                channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static int skipSpace(byte[] buf, int pos, int end) {
+        while (pos < end && isSpace(buf[pos]))
+            pos++;
+        return pos;
+    }
+
+    private static int trimEnd(byte[] buf, int start, int end) {
+        while (end > start && isSpace(buf[end - 1]))
+            end--;
+        return end;
+    }
+
+    private static int hash(byte[] buf, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + buf[i];
+        }
+        return h;
+    }
+
+    private static int hash(byte[] key) {
+        return hash(key, 0, key.length);
+    }
+
+    private static int mix(int h) {
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2014, Kestutis Kupciunas (aka kesha)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.htpasswd;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Failed login attempt tracker. Each key (user name, remote address) maps to
+ * a token bucket which holds up to <code>maxFailures</code> failures and
+ * leaks one failure every <code>decayMillis</code> milliseconds. Once the
+ * bucket is full, further attempts for the key are rejected.
+ * <p>
+ * Buckets live in a fixed size table, so memory use is bounded regardless
+ * of the number of distinct keys. The table is split into sets of four
+ * buckets; a key may use any bucket of the set its hash points to. Each
+ * bucket is a single <code>long</code> holding a 16 bit fingerprint of the
+ * key, last update time and failure count, updated with CAS - no locking is
+ * involved. Keys are told apart by the fingerprint, so unrelated keys of
+ * the same set do not share failures. When all buckets of a set are in use,
+ * the one with the fewest failures is reused.
+ *
+ * @author kesha
+ */
+public class LoginThrottle {
+    private static final int WAYS = 4;
+    private static final int COUNT_BITS = 8;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    /**
+     * Largest supported failure count limit.
+     */
+    public static final int MAX_FAILURES = (int)COUNT_MASK;
+    private static final int TIME_BITS = 40;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+    private static final int FINGERPRINT_SHIFT = COUNT_BITS + TIME_BITS;
+
+    private final AtomicLongArray buckets;
+    private final int mask;
+    private final int maxFailures;
+    private final long decayMillis;
+    // bucket time is stored relative to this
+    private final long epoch;
+
+    /**
+     * @param size number of buckets, rounded up to power of two (at least 4)
+     * @param maxFailures number of failures after which attempts are rejected,
+     * up to {@link #MAX_FAILURES}, <code>0</code> disables throttling
+     * @param decayMillis time it takes to forget a single failure
+     */
+    public LoginThrottle(int size, int maxFailures, long decayMillis) {
+        this(size, maxFailures, decayMillis, System.currentTimeMillis());
+    }
+
+    LoginThrottle(int size, int maxFailures, long decayMillis, long epoch) {
+        if (size <= 0 || maxFailures < 0 || maxFailures > COUNT_MASK || decayMillis <= 0) {
+            throw new IllegalArgumentException("Invalid throttle parameters");
+        }
+        int capacity = Integer.highestOneBit(Math.max(size, WAYS));
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+        this.buckets = new AtomicLongArray(capacity);
+        this.mask = (capacity - 1) & ~(WAYS - 1);
+        this.maxFailures = maxFailures;
+        this.decayMillis = decayMillis;
+        this.epoch = epoch;
+    }
+
+    /**
+     * Checks whether attempts for the given key are currently rejected.
+     *
+     * @param key user name or remote address, <code>null</code> is never blocked
+     * @return <code>true</code> if the key has exhausted its failure allowance
+     */
+    public boolean isBlocked(String key) {
+        return isBlocked(key, System.currentTimeMillis());
+    }
+
+    boolean isBlocked(String key, long now) {
+        if (key == null || maxFailures == 0)
+            return false;
+        int h = hash(key);
+        long fingerprint = keyFingerprint(h);
+        int set = h & mask;
+        for (int i = set; i < set + WAYS; i++) {
+            long bucket = buckets.get(i);
+            if (bucketFingerprint(bucket) == fingerprint && failures(bucket, now) >= maxFailures)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records failed attempt for the given key.
+     *
+     * @param key user name or remote address, <code>null</code> is ignored
+     */
+    public void recordFailure(String key) {
+        recordFailure(key, System.currentTimeMillis());
+    }
+
+    void recordFailure(String key, long now) {
+        if (key == null || maxFailures == 0)
+            return;
+        int h = hash(key);
+        long fingerprint = keyFingerprint(h);
+        int set = h & mask;
+        while (true) {
+            // update the key's own bucket, or take over the least used one
+            int slot = -1;
+            long current = 0L;
+            long victimFailures = Long.MAX_VALUE;
+            for (int i = set; i < set + WAYS; i++) {
+                long bucket = buckets.get(i);
+                if (bucketFingerprint(bucket) == fingerprint) {
+                    slot = i;
+                    current = bucket;
+                    break;
+                }
+                long failures = failures(bucket, now);
+                if (failures < victimFailures) {
+                    slot = i;
+                    current = bucket;
+                    victimFailures = failures;
+                }
+            }
+
+            long count = (bucketFingerprint(current) == fingerprint) ? failures(current, now) : 0;
+            count = Math.min(count + 1, maxFailures);
+            long time = Math.max(0L, now - epoch) & TIME_MASK;
+            long updated = (fingerprint << FINGERPRINT_SHIFT) | (time << COUNT_BITS) | count;
+            if (buckets.compareAndSet(slot, current, updated))
+                return;
+        }
+    }
+
+    /**
+     * Forgets failed attempts of the given key, e.g. after successful login.
+     *
+     * @param key user name or remote address, <code>null</code> is ignored
+     */
+    public void reset(String key) {
+        if (key == null || maxFailures == 0)
+            return;
+        int h = hash(key);
+        long fingerprint = keyFingerprint(h);
+        int set = h & mask;
+        for (int i = set; i < set + WAYS; i++) {
+            long bucket = buckets.get(i);
+            if (bucketFingerprint(bucket) == fingerprint) {
+                buckets.compareAndSet(i, bucket, 0L);
+            }
+        }
+    }
+
+    private long failures(long bucket, long now) {
+        long count = bucket & COUNT_MASK;
+        if (count == 0)
+            return 0;
+        long elapsed = (now - epoch) - ((bucket >>> COUNT_BITS) & TIME_MASK);
+        if (elapsed <= 0)
+            return count;
+        long leaked = elapsed / decayMillis;
+        return (leaked >= count) ? 0 : count - leaked;
+    }
+
+    private static long bucketFingerprint(long bucket) {
+        return bucket >>> FINGERPRINT_SHIFT;
+    }
+
+    /**
+     * Fingerprint is taken from the hash bits not used for set selection;
+     * zero is reserved for empty buckets.
+     */
+    private static long keyFingerprint(int h) {
+        long fingerprint = (h >>> 16) & 0xffffL;
+        return (fingerprint == 0) ? 1 : fingerprint;
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        h *= 0xc2b2ae35;
+        h ^= (h >>> 16);
+        return h;
+    }
+}
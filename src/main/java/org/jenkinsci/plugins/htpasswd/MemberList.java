@@ -0,0 +1,64 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2014, Kestutis Kupciunas (aka kesha)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.htpasswd;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Immutable list of unique group members, which supports constant time
+ * membership checks.
+ *
+ * @author kesha
+ */
+final class MemberList extends AbstractList<String> implements RandomAccess {
+    private final String[] members;
+    private final Set<String> index;
+
+    /**
+     * @param members unique member names, in the order they are listed
+     */
+    MemberList(Collection<String> members) {
+        this.members = members.toArray(new String[members.size()]);
+        this.index = new HashSet<String>(members);
+    }
+
+    @Override
+    public String get(int i) {
+        return members[i];
+    }
+
+    @Override
+    public int size() {
+        return members.length;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return index.contains(o);
+    }
+}
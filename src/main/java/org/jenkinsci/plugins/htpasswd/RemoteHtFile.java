@@ -0,0 +1,186 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2014, Kestutis Kupciunas (aka kesha)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.htpasswd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Auto-reloading cache of the {@link HtFile} published over HTTP.
+ * <p>
+ * The URL is polled at most once per refresh interval using conditional
+ * requests (<code>If-None-Match</code>/<code>If-Modified-Since</code>), so
+ * unchanged data is neither transferred nor parsed again. Changed data is
+ * parsed straight from the response stream into a new {@link HtFile}
+ * instance, which then replaces the cached one. If the server cannot be
+ * reached, last successfully loaded data is served.
+ * <p>
+ * Only one thread polls at a time; other threads keep getting the cached
+ * data meanwhile. Until the data is loaded for the first time, other threads
+ * fail right away instead of waiting, and so do all threads for the refresh
+ * interval after a failed initial load.
+ *
+ * @author kesha
+ */
+public class RemoteHtFile<T extends HtFile> implements HtFileSource<T> {
+    private static final Logger logger = Logger.getLogger("htpasswd-htfile-remote");
+
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 30000;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile T htFile;
+    private volatile long lastCheck;
+    private volatile IOException loadFailure;
+    private String etag;
+    private String lastModified;
+    private final URL url;
+    private final Class<? extends T> clazz;
+    private final long refreshMillis;
+
+    /**
+     * Creates cache instance for the given file type (htpasswd, htgroups etc).
+     *
+     * @param url http(s) URL of the file to cache info for
+     * @param clazz class of the specific file type handling instance
+     * @param refreshMillis minimal interval between checks for modifications
+     */
+    public RemoteHtFile(URL url, Class<? extends T> clazz, long refreshMillis) {
+        this.htFile = null;
+        this.lastCheck = 0L;
+        this.url = url;
+        this.clazz = clazz;
+        this.refreshMillis = refreshMillis;
+    }
+
+    /**
+     * Returns {@link HtFile} instance with most fresh info from the URL that
+     * is being cached. Modifications are checked for once the refresh
+     * interval passes.
+     *
+     * @return {@link HtFile} instance, ready to be queried for data
+     * @throws IOException if data was never loaded successfully, or
+     * is being loaded for the first time by another thread
+     * @throws ReflectiveOperationException on any instance creation failure
+     */
+    @Override
+    public T get() throws IOException, ReflectiveOperationException {
+        T cached = htFile;
+        if (cached != null) {
+            // somebody is already checking for modifications - do not wait
+            if (!isExpired() || !lock.tryLock()) {
+                return cached;
+            }
+        } else {
+            IOException failure = loadFailure;
+            if (failure != null && !isExpired()) {
+                throw new IOException("Failed to load " + url + ": " + failure.getMessage(), failure);
+            }
+            // do not queue request threads behind the initial load
+            if (!lock.tryLock()) {
+                throw new IOException(url + " is not loaded yet");
+            }
+        }
+
+        try {
+            cached = htFile;
+            if (cached != null && !isExpired()) {
+                return cached;
+            }
+            return poll(cached);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isExpired() {
+        return System.currentTimeMillis() - lastCheck >= refreshMillis;
+    }
+
+    private T poll(T cached) throws IOException, ReflectiveOperationException {
+        HttpURLConnection conn = null;
+        InputStream in = null;
+        try {
+            conn = (HttpURLConnection)url.openConnection();
+            conn.setConnectTimeout(CONNECT_TIMEOUT);
+            conn.setReadTimeout(READ_TIMEOUT);
+            conn.setUseCaches(false);
+            if (cached != null) {
+                if (etag != null)
+                    conn.setRequestProperty("If-None-Match", etag);
+                if (lastModified != null)
+                    conn.setRequestProperty("If-Modified-Since", lastModified);
+            }
+
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                lastCheck = System.currentTimeMillis();
+                return cached;
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                in = conn.getErrorStream();
+                String msg = String.format("Failed to fetch %s: HTTP %d", url, code);
+                throw new IOException(msg);
+            }
+
+            in = conn.getInputStream();
+            T fresh = clazz.newInstance();
+            fresh.load(in);
+            if (cached != null) {
+                logger.info("Modification detected on " + url + " - reloaded");
+            }
+
+            etag = conn.getHeaderField("ETag");
+            lastModified = conn.getHeaderField("Last-Modified");
+            htFile = fresh;
+            lastCheck = System.currentTimeMillis();
+            loadFailure = null;
+            return fresh;
+        } catch (IOException ex) {
+            if (cached == null) {
+                // fail fast until the refresh interval passes
+                lastCheck = System.currentTimeMillis();
+                loadFailure = ex;
+                throw ex;
+            }
+            // keep serving last good data, retry after refresh interval
+            logger.warning("Failed to reload " + url + ", using cached data: " + ex);
+            lastCheck = System.currentTimeMillis();
+            return cached;
+        } catch (ReflectiveOperationException ex) {
+            logger.throwing("RemoteHtFile", "get()", ex);
+            throw ex;
+        } finally {
+            try {
+                if (in != null)
+                    in.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+}
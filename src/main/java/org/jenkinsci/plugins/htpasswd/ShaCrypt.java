@@ -0,0 +1,279 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2014, Kestutis Kupciunas (aka kesha)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.htpasswd;
+
+import java.nio.charset.Charset;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 ($5$) and SHA-512 ($6$) crypt password verifier, as specified in
+ * "Unix crypt using SHA-256 and SHA-512" by Ulrich Drepper.
+ * <p>
+ * Message digests and scratch buffers are kept per thread and reused, so
+ * verification does not allocate per round. The number of rounds is
+ * limited by the caller-provided maximum.
+ *
+ * @author kesha
+ */
+final class ShaCrypt {
+    static final String SHA256_PREFIX = "$5$";
+    static final String SHA512_PREFIX = "$6$";
+
+    private static final String ROUNDS_PREFIX = "rounds=";
+    private static final int ROUNDS_DEFAULT = 5000;
+    private static final int ROUNDS_MIN = 1000;
+    private static final int ROUNDS_MAX = 999999999;
+    private static final int SALT_MAX = 16;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] B64 =
+            "./0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+
+    // byte triples of the final digest, in output encoding order
+    private static final int[] SHA256_ORDER = {
+        0, 10, 20, 21, 1, 11, 12, 22, 2, 3, 13, 23, 24, 4, 14,
+        15, 25, 5, 6, 16, 26, 27, 7, 17, 18, 28, 8, 9, 19, 29
+    };
+    private static final int[] SHA512_ORDER = {
+        0, 21, 42, 22, 43, 1, 44, 2, 23, 3, 24, 45, 25, 46, 4,
+        47, 5, 26, 6, 27, 48, 28, 49, 7, 50, 8, 29, 9, 30, 51,
+        31, 52, 10, 53, 11, 32, 12, 33, 54, 34, 55, 13, 56, 14, 35,
+        15, 36, 57, 37, 58, 16, 59, 17, 38, 18, 39, 60, 40, 61, 19,
+        62, 20, 41
+    };
+
+    private static final ThreadLocal<Scratch> SHA256 = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch("SHA-256");
+        }
+    };
+    private static final ThreadLocal<Scratch> SHA512 = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch("SHA-512");
+        }
+    };
+
+    /**
+     * Per thread digest and buffers.
+     */
+    private static final class Scratch {
+        final MessageDigest md;
+        final byte[] a;
+        final byte[] b;
+        byte[] p = new byte[64];
+        byte[] s = new byte[SALT_MAX];
+
+        Scratch(String algorithm) {
+            try {
+                md = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex);
+            }
+            a = new byte[md.getDigestLength()];
+            b = new byte[md.getDigestLength()];
+        }
+
+        byte[] p(int length) {
+            if (p.length < length)
+                p = new byte[length];
+            return p;
+        }
+
+        byte[] s(int length) {
+            if (s.length < length)
+                s = new byte[length];
+            return s;
+        }
+    }
+
+    private ShaCrypt() {
+    }
+
+    /**
+     * Returns number of rounds used by the given SHA crypt hash.
+     *
+     * @param hashed <code>$5$</code> or <code>$6$</code> hash
+     * @return number of rounds, or <code>-1</code> if hash is malformed
+     */
+    static int getRounds(String hashed) {
+        if (!hashed.startsWith(ROUNDS_PREFIX, 3))
+            return ROUNDS_DEFAULT;
+        int end = hashed.indexOf('$', 3 + ROUNDS_PREFIX.length());
+        if (end == -1)
+            return -1;
+        try {
+            long rounds = Long.parseLong(hashed.substring(3 + ROUNDS_PREFIX.length(), end));
+            return (int)Math.max(ROUNDS_MIN, Math.min(ROUNDS_MAX, rounds));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Verifies plain text password against SHA crypt hash.
+     *
+     * @param hashed <code>$5$</code> or <code>$6$</code> hash
+     * @param plain plain text password
+     * @param maxRounds maximum number of rounds to accept
+     * @return <code>true</code> if password matches
+     * @throws IllegalArgumentException if hash is malformed or uses more
+     * than <code>maxRounds</code> rounds
+     */
+    static boolean verify(String hashed, String plain, int maxRounds) {
+        boolean sha512 = hashed.startsWith(SHA512_PREFIX);
+        if (!sha512 && !hashed.startsWith(SHA256_PREFIX))
+            throw new IllegalArgumentException("Not a SHA crypt hash");
+
+        int rounds = getRounds(hashed);
+        if (rounds < 0)
+            throw new IllegalArgumentException("Malformed SHA crypt hash");
+        if (rounds > maxRounds)
+            throw new IllegalArgumentException("SHA crypt rounds " + rounds + " exceed limit " + maxRounds);
+
+        int saltStart = hashed.startsWith(ROUNDS_PREFIX, 3) ? hashed.indexOf('$', 3) + 1 : 3;
+        int saltEnd = hashed.indexOf('$', saltStart);
+        if (saltEnd == -1)
+            throw new IllegalArgumentException("Malformed SHA crypt hash");
+        String salt = hashed.substring(saltStart, Math.min(saltEnd, saltStart + SALT_MAX));
+
+        Scratch scratch = sha512 ? SHA512.get() : SHA256.get();
+        byte[] digest = crypt(scratch, plain.getBytes(UTF8), salt.getBytes(UTF8), rounds);
+        return matches(hashed, saltEnd + 1, digest, sha512 ? SHA512_ORDER : SHA256_ORDER);
+    }
+
+    private static byte[] crypt(Scratch scratch, byte[] key, byte[] salt, int rounds) {
+        MessageDigest md = scratch.md;
+        byte[] a = scratch.a;
+        byte[] b = scratch.b;
+        int size = a.length;
+
+        try {
+            // digest B = key + salt + key
+            md.reset();
+            md.update(key);
+            md.update(salt);
+            md.update(key);
+            md.digest(b, 0, size);
+
+            // digest A
+            md.update(key);
+            md.update(salt);
+            int n = key.length;
+            for (; n > size; n -= size) {
+                md.update(b, 0, size);
+            }
+            md.update(b, 0, n);
+            for (n = key.length; n > 0; n >>= 1) {
+                if ((n & 1) != 0) {
+                    md.update(b, 0, size);
+                } else {
+                    md.update(key);
+                }
+            }
+            md.digest(a, 0, size);
+
+            // byte sequence P from digest DP of the key repeated key length times
+            for (n = 0; n < key.length; n++) {
+                md.update(key);
+            }
+            md.digest(b, 0, size);
+            byte[] p = scratch.p(key.length);
+            for (n = 0; n < key.length; n++) {
+                p[n] = b[n % size];
+            }
+
+            // byte sequence S from digest DS of the salt repeated 16 + A[0] times
+            for (n = 0; n < 16 + (a[0] & 0xff); n++) {
+                md.update(salt);
+            }
+            md.digest(b, 0, size);
+            byte[] s = scratch.s(salt.length);
+            for (n = 0; n < salt.length; n++) {
+                s[n] = b[n % size];
+            }
+
+            for (int i = 0; i < rounds; i++) {
+                if ((i & 1) != 0) {
+                    md.update(p, 0, key.length);
+                } else {
+                    md.update(a, 0, size);
+                }
+                if (i % 3 != 0) {
+                    md.update(s, 0, salt.length);
+                }
+                if (i % 7 != 0) {
+                    md.update(p, 0, key.length);
+                }
+                if ((i & 1) != 0) {
+                    md.update(a, 0, size);
+                } else {
+                    md.update(p, 0, key.length);
+                }
+                md.digest(a, 0, size);
+            }
+            return a;
+        } catch (DigestException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Compares encoded digest in the hash starting at <code>pos</code>
+     * with the computed digest, without building the encoded string.
+     */
+    private static boolean matches(String hashed, int pos, byte[] digest, int[] order) {
+        int expected = (digest.length * 8 + 5) / 6;
+        if (hashed.length() - pos != expected)
+            return false;
+
+        int diff = 0;
+        int i = 0;
+        for (; i < order.length; i += 3) {
+            int w = ((digest[order[i]] & 0xff) << 16)
+                    | ((digest[order[i + 1]] & 0xff) << 8)
+                    | (digest[order[i + 2]] & 0xff);
+            for (int c = 0; c < 4; c++, w >>>= 6) {
+                diff |= hashed.charAt(pos++) ^ B64[w & 0x3f];
+            }
+        }
+        // trailing bytes not covered by the triples
+        int w;
+        int chars;
+        if (digest.length == 32) {
+            w = ((digest[31] & 0xff) << 8) | (digest[30] & 0xff);
+            chars = 3;
+        } else {
+            w = digest[63] & 0xff;
+            chars = 2;
+        }
+        for (int c = 0; c < chars; c++, w >>>= 6) {
+            diff |= hashed.charAt(pos++) ^ B64[w & 0x3f];
+        }
+        return diff == 0;
+    }
+}
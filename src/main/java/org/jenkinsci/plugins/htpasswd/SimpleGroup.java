@@ -2,14 +2,42 @@ package org.jenkinsci.plugins.htpasswd;
 
 import hudson.security.GroupDetails;
 
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Simplistic implementation of {@link GroupDetails}
  */
 public class SimpleGroup extends GroupDetails {
     private String name;
+    private List<String> members;
 
+    /**
+     * Creates group details without member information,
+     * {@link #getMembers()} returns <code>null</code>.
+     *
+     * @param name group name
+     */
     public SimpleGroup(String name) {
         this.name = name;
+        this.members = null;
+    }
+
+    /**
+     * Creates group details backed by the given member list.
+     * The list is not copied, so it should not be modified afterwards and
+     * must not contain duplicates - lists returned by
+     * {@link HtGroupFile#getUsers(String)} are safe to pass.
+     *
+     * @param name group name
+     * @param members unique group member user names
+     */
+    public SimpleGroup(String name, List<String> members) {
+        this.name = name;
+        this.members = Collections.unmodifiableList(members);
     }
 
     @Override
@@ -17,6 +45,57 @@ public class SimpleGroup extends GroupDetails {
         return name;
     }
 
+    /**
+     * Returns read-only view of the group members. No copy of the member
+     * list is made.
+     *
+     * @return group member user names, or <code>null</code> if members
+     * were not fetched
+     */
+    @Override
+    public Set<String> getMembers() {
+        if (members == null) {
+            return null;
+        }
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return members.iterator();
+            }
+
+            @Override
+            public int size() {
+                return members.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return members.contains(o);
+            }
+        };
+    }
+
+    /**
+     * Returns a page of group members as a read-only view.
+     *
+     * @param offset index of the first member to return
+     * @param limit maximum number of members to return
+     * @return at most <code>limit</code> member user names, empty if
+     * <code>offset</code> is past the end of the member list or members
+     * were not fetched
+     */
+    public List<String> getMembers(int offset, int limit) {
+        return HtGroupFile.page(
+                (members == null) ? Collections.<String>emptyList() : members, offset, limit);
+    }
+
+    /**
+     * @return number of group members, <code>0</code> if members were not fetched
+     */
+    public int getMemberCount() {
+        return (members == null) ? 0 : members.size();
+    }
+
     @Override
     public int hashCode() {
         return (name == null) ? 0 : name.hashCode();
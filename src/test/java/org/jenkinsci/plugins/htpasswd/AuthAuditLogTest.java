@@ -0,0 +1,165 @@
+package org.jenkinsci.plugins.htpasswd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.jenkinsci.plugins.htpasswd.AuthAuditLog.Event;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AuthAuditLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> lines(File file) throws IOException {
+        return Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+    }
+
+    @Test
+    public final void testRecord() throws Exception {
+        File file = new File(folder.getRoot(), "logs/audit.log");
+        AuthAuditLog log = new AuthAuditLog(file, 16, 1024 * 1024, 2);
+        log.start();
+        assertTrue(log.record(Event.SUCCESS, "user1", "10.0.0.1"));
+        assertTrue(log.record(Event.FAILURE, "user2", null));
+        assertTrue(log.record(Event.THROTTLED, "user2", "10.0.0.2"));
+        log.close();
+
+        List<String> lines = lines(file);
+        assertEquals(lines.size(), 3);
+        assertTrue(lines.get(0).endsWith(" SUCCESS user=\"user1\" address=\"10.0.0.1\""));
+        assertTrue(lines.get(1).endsWith(" FAILURE user=\"user2\" address=-"));
+        assertTrue(lines.get(2).endsWith(" THROTTLED user=\"user2\" address=\"10.0.0.2\""));
+    }
+
+    @Test
+    public final void testControlCharactersEscaped() throws Exception {
+        File file = new File(folder.getRoot(), "audit.log");
+        AuthAuditLog log = new AuthAuditLog(file, 16, 1024 * 1024, 2);
+        log.record(Event.FAILURE,
+                "x\n2014-01-01T00:00:00.000+0000 SUCCESS user=\"admin\"\r", "10.0.0.1");
+        log.record(Event.FAILURE, "a\\b\tc\u0000d\u001b", null);
+        log.close();
+
+        List<String> lines = lines(file);
+        assertEquals(lines.size(), 2);
+        assertTrue(lines.get(0).endsWith(" FAILURE user=\"x\\n2014-01-01T00:00:00.000+0000"
+                + " SUCCESS user=\\\"admin\\\"\\r\" address=\"10.0.0.1\""));
+        assertTrue(lines.get(1).endsWith(" FAILURE user=\"a\\\\b\\tc\\u0000d\\u001b\" address=-"));
+    }
+
+    @Test
+    public final void testDropWhenFull() throws Exception {
+        File file = new File(folder.getRoot(), "audit.log");
+        AuthAuditLog log = new AuthAuditLog(file, 4, 1024 * 1024, 2);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(log.record(Event.FAILURE, "user" + i, null));
+        }
+        assertFalse(log.record(Event.FAILURE, "user4", null));
+        assertFalse(log.record(Event.FAILURE, "user5", null));
+        assertEquals(log.getDroppedCount(), 2);
+        log.close();
+
+        List<String> lines = lines(file);
+        assertEquals(lines.size(), 5);
+        assertTrue(lines.get(0).endsWith(" DROPPED count=2"));
+        assertTrue(lines.get(4).endsWith(" FAILURE user=\"user3\" address=-"));
+    }
+
+    @Test
+    public final void testUnwritableFile() throws Exception {
+        // parent "directory" is a regular file, so the log cannot be opened
+        File file = new File(folder.newFile("logs"), "audit.log");
+        AuthAuditLog log = new AuthAuditLog(file, 4, 1024 * 1024, 2);
+        log.start();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(log.record(Event.FAILURE, "user" + i, null));
+        }
+        Thread.sleep(500);
+        // events are not taken from the buffer while the file is unwritable
+        assertFalse(log.record(Event.FAILURE, "user4", null));
+        assertEquals(log.getDroppedCount(), 1);
+        log.close();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public final void testRollOverCountsBytes() throws Exception {
+        File file = new File(folder.getRoot(), "audit.log");
+        StringBuilder user = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            user.append('\u017e');
+        }
+        // line is about 160 characters, but over 250 bytes
+        AuthAuditLog log = new AuthAuditLog(file, 4, 200, 2);
+        log.record(Event.SUCCESS, user.toString(), null);
+        log.close();
+
+        assertFalse(file.exists());
+        assertTrue(lines(new File(file.getPath() + ".1")).get(0).contains(user));
+    }
+
+    @Test
+    public final void testConcurrentProducers() throws Exception {
+        File file = new File(folder.getRoot(), "audit.log");
+        final AuthAuditLog log = new AuthAuditLog(file, 1024, 1024 * 1024 * 1024, 2);
+        log.start();
+
+        final int threads = 8;
+        final int perThread = 5000;
+        Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final String user = "user" + t;
+            producers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        log.record(Event.SUCCESS, user, null);
+                    }
+                }
+            };
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        log.close();
+
+        int events = 0;
+        long dropped = 0;
+        for (String line : lines(file)) {
+            int pos = line.indexOf(" DROPPED count=");
+            if (pos == -1) {
+                events++;
+            } else {
+                dropped += Long.parseLong(line.substring(pos + 15));
+            }
+        }
+        assertEquals(dropped, log.getDroppedCount());
+        assertEquals(events + dropped, threads * perThread);
+    }
+
+    @Test
+    public final void testRollOver() throws Exception {
+        File file = new File(folder.getRoot(), "audit.log");
+        AuthAuditLog log = new AuthAuditLog(file, 4, 10, 3);
+        for (int round = 0; round < 4; round++) {
+            log.record(Event.SUCCESS, "user" + round, null);
+            log.close();
+            log = new AuthAuditLog(file, 4, 10, 3);
+        }
+
+        assertFalse(file.exists());
+        assertTrue(lines(new File(file.getPath() + ".1")).get(0).contains("user3"));
+        assertTrue(lines(new File(file.getPath() + ".2")).get(0).contains("user2"));
+        assertFalse(new File(file.getPath() + ".3").exists());
+    }
+}
@@ -0,0 +1,210 @@
+package org.jenkinsci.plugins.htpasswd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CachedHtFileTest {
+    private static final String HTPASSWD =
+            "# users\n" +
+            "ubnt:$apr1$z.ii9bda$5iZZ8QGI3IZSONip9.jiF1\n" +
+            "ubnt-sha:{SHA}tecByS63TeTWDNwG80nkzwCdrWU=\n";
+
+    private static final String HTGROUPS =
+            "admin: root\n" +
+            "group3: user1 user2\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File htpasswdFile;
+    private File htgroupsFile;
+
+    @Before
+    public void setUp() throws Exception {
+        htpasswdFile = folder.newFile("htpasswd");
+        htgroupsFile = folder.newFile("htgroups");
+        write(htpasswdFile, HTPASSWD);
+        write(htgroupsFile, HTGROUPS);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static List<String> lines(File file) throws IOException {
+        return Files.readAllLines(file.toPath(), Charset.defaultCharset());
+    }
+
+    @Test
+    public final void testWriteEntry() throws IOException {
+        HtFile.writeEntry(htpasswdFile, "ubnt", "{SHA}changed=");
+        HtFile.writeEntry(htpasswdFile, "newuser", "{SHA}new=");
+        HtFile.writeEntry(htpasswdFile, "ubnt-sha", null);
+
+        List<String> lines = lines(htpasswdFile);
+        assertEquals(lines.size(), 3);
+        assertEquals(lines.get(0), "# users");
+        assertEquals(lines.get(1), "ubnt:{SHA}changed=");
+        assertEquals(lines.get(2), "newuser:{SHA}new=");
+        assertEquals(folder.getRoot().list().length, 2);
+    }
+
+    @Test
+    public final void testWritePreservesPermissions() throws IOException {
+        Assume.assumeNotNull(Files.getFileAttributeView(
+                htpasswdFile.toPath(), PosixFileAttributeView.class));
+        Set<PosixFilePermission> mode = PosixFilePermissions.fromString("rw-r-----");
+        Files.setPosixFilePermissions(htpasswdFile.toPath(), mode);
+
+        HtFile.writeEntry(htpasswdFile, "newuser", "{SHA}new=");
+        assertEquals(Files.getPosixFilePermissions(htpasswdFile.toPath()), mode);
+        assertEquals(lines(htpasswdFile).get(3), "newuser:{SHA}new=");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public final void testWriteInvalidKey() throws IOException {
+        HtFile.writeEntry(htpasswdFile, "bad:user", "{SHA}x=");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public final void testWriteInvalidValue() throws IOException {
+        HtFile.writeEntry(htpasswdFile, "user", "{SHA}x=\nroot:{SHA}y=");
+    }
+
+    @Test
+    public final void testUpdatePasswd() throws Exception {
+        CachedHtFile<HtPasswdFile> cached =
+                new CachedHtFile<HtPasswdFile>(htpasswdFile.getPath(), HtPasswdFile.class);
+        HtPasswdFile htpasswd = cached.get();
+        assertTrue(htpasswd.isPasswordValid("ubnt", "ubnt"));
+
+        cached.update("newuser", HtPasswdFile.hashPassword("secret"));
+        cached.update("ubnt", null);
+
+        // changes are applied in place, without a reload
+        assertSame(htpasswd, cached.get());
+        assertTrue(htpasswd.isPasswordValid("newuser", "secret"));
+        assertNull(htpasswd.getPassword("ubnt"));
+
+        HtPasswdFile reloaded = new CachedHtFile<HtPasswdFile>(
+                htpasswdFile.getPath(), HtPasswdFile.class).get();
+        assertTrue(reloaded.isPasswordValid("newuser", "secret"));
+        assertTrue(reloaded.isPasswordValid("ubnt-sha", "ubnt"));
+        assertNull(reloaded.getPassword("ubnt"));
+    }
+
+    /**
+     * Edits the file right after the second load, as if an external tool
+     * changed it just after the cache validated its modification time.
+     */
+    public static class RacingHtPasswdFile extends HtPasswdFile {
+        static File file;
+        static int loads;
+
+        @Override
+        public synchronized void load(File f) throws IOException {
+            super.load(f);
+            if (++loads == 2) {
+                write(file, "ubnt:$apr1$z.ii9bda$5iZZ8QGI3IZSONip9.jiF1\n");
+                file.setLastModified(f.lastModified() + 2000L);
+            }
+        }
+    }
+
+    @Test
+    public final void testUpdateConcurrentModification() throws Exception {
+        RacingHtPasswdFile.file = htpasswdFile;
+        RacingHtPasswdFile.loads = 0;
+        CachedHtFile<HtPasswdFile> cached =
+                new CachedHtFile<HtPasswdFile>(htpasswdFile.getPath(), RacingHtPasswdFile.class);
+        assertTrue(cached.get().isPasswordValid("ubnt-sha", "ubnt"));
+
+        write(htpasswdFile, HTPASSWD + "other:{SHA}other=\n");
+        htpasswdFile.setLastModified(htpasswdFile.lastModified() + 2000L);
+        cached.update("newuser", "{SHA}new=");
+
+        // the edit made meanwhile is reloaded rather than lost
+        assertEquals(RacingHtPasswdFile.loads, 3);
+        HtPasswdFile htpasswd = cached.get();
+        assertNull(htpasswd.getPassword("ubnt-sha"));
+        assertNull(htpasswd.getPassword("other"));
+        assertEquals(htpasswd.getPassword("newuser"), "{SHA}new=");
+        List<String> lines = lines(htpasswdFile);
+        assertEquals(lines.size(), 2);
+        assertEquals(lines.get(1), "newuser:{SHA}new=");
+    }
+
+    @Test
+    public final void testWriteEntryModified() throws IOException {
+        long modified = htpasswdFile.lastModified();
+        assertEquals(HtFile.writeEntry(htpasswdFile, "newuser", "{SHA}new=", modified + 1000L), -1L);
+        assertEquals(lines(htpasswdFile).size(), 3);
+        assertEquals(folder.getRoot().list().length, 2);
+
+        assertTrue(HtFile.writeEntry(htpasswdFile, "newuser", "{SHA}new=", modified) != -1L);
+        assertEquals(lines(htpasswdFile).size(), 4);
+    }
+
+    @Test
+    public final void testUpdateGroups() throws Exception {
+        CachedHtFile<HtGroupFile> cached =
+                new CachedHtFile<HtGroupFile>(htgroupsFile.getPath(), HtGroupFile.class);
+        HtGroupFile htgroups = cached.get();
+
+        cached.update("group3", htgroups.getValueWithUser("group3", "user3"));
+        cached.update("admin", htgroups.getValueWithoutUser("admin", "root"));
+        cached.update("new", htgroups.getValueWithUser("new", "user1"));
+
+        assertSame(htgroups, cached.get());
+        assertEquals(htgroups.getUserCount("group3"), 3);
+        assertTrue(htgroups.getUsers("group3").contains("user3"));
+        assertNull(htgroups.getUsers("admin"));
+        assertTrue(htgroups.getGroups("user1").contains("new"));
+        assertFalse(htgroups.getGroups("root").contains("admin"));
+
+        List<String> lines = lines(htgroupsFile);
+        assertEquals(lines.size(), 2);
+        assertEquals(lines.get(0), "group3:user1 user2 user3");
+        assertEquals(lines.get(1), "new:user1");
+    }
+
+    @Test
+    public final void testInvalidMember() throws Exception {
+        HtGroupFile htgroups = new CachedHtFile<HtGroupFile>(
+                htgroupsFile.getPath(), HtGroupFile.class).get();
+        String[] invalid = { "", "user3 user4", "user3\n", "user:3" };
+        for (String user : invalid) {
+            try {
+                htgroups.getValueWithUser("group3", user);
+                fail("accepted invalid member '" + user + "'");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
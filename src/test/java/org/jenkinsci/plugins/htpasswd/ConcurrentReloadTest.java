@@ -0,0 +1,204 @@
+package org.jenkinsci.plugins.htpasswd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import hudson.security.GroupDetails;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.acegisecurity.GrantedAuthority;
+import org.acegisecurity.userdetails.UserDetails;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Hammers the security realm from many threads while the backing files are
+ * being rewritten, checking that readers never observe partially loaded data.
+ */
+public class ConcurrentReloadTest {
+    private static final String HTPASSWD =
+            "ubnt:$apr1$z.ii9bda$5iZZ8QGI3IZSONip9.jiF1\n" +
+            "ubnt-sha:{SHA}tecByS63TeTWDNwG80nkzwCdrWU=\n";
+
+    private static final String HTGROUPS =
+            "admin: ubnt\n" +
+            "group3: user1 user2 user3\n";
+
+    private static final Set<String> GROUP3 =
+            new HashSet<String>(Arrays.asList("user1", "user2", "user3"));
+
+    private static final int READERS = 8;
+    private static final long DURATION_MILLIS = 3000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File htpasswdFile;
+    private File htgroupsFile;
+    private HtPasswdSecurityRealm realm;
+
+    @Before
+    public void setUp() throws Exception {
+        htpasswdFile = folder.newFile("htpasswd");
+        htgroupsFile = folder.newFile("htgroups");
+        write(htpasswdFile, HTPASSWD);
+        write(htgroupsFile, HTGROUPS);
+        realm = new HtPasswdSecurityRealm(htpasswdFile.getPath(), htgroupsFile.getPath());
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Replaces the file the way editors and provisioning tools do -
+     * writes a new file and renames it over the old one.
+     */
+    private static void replace(File file, String content, long modified) throws IOException {
+        File tmp = new File(file.getPath() + ".new");
+        write(tmp, content);
+        tmp.setLastModified(modified);
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean hasAuthority(UserDetails user, String name) {
+        for (GrantedAuthority authority : user.getAuthorities()) {
+            if (name.equals(authority.getAuthority()))
+                return true;
+        }
+        return false;
+    }
+
+    @Test
+    public final void testReloadUnderLoad() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicLong operations = new AtomicLong();
+        final AtomicLong reloads = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long deadline = System.currentTimeMillis() + DURATION_MILLIS;
+
+        Thread[] readers = new Thread[READERS];
+        for (int t = 0; t < READERS; t++) {
+            readers[t] = new Thread("reader-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        long count = 0;
+                        while (failure.get() == null && System.currentTimeMillis() < deadline) {
+                            UserDetails user = realm.authenticate("ubnt-sha", "ubnt");
+                            assertTrue("missing group", hasAuthority(user, "authenticated"));
+
+                            user = realm.loadUserByUsername("ubnt");
+                            assertTrue("missing group", hasAuthority(user, "admin"));
+
+                            GroupDetails group = realm.loadGroupByGroupname("group3", true);
+                            Set<String> members = new HashSet<String>(group.getMembers());
+                            assertEquals("torn group view", GROUP3, members);
+                            count += 3;
+                        }
+                        operations.addAndGet(count);
+                    } catch (Throwable ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            };
+            readers[t].start();
+        }
+
+        Thread writer = new Thread("writer") {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    long modified = htpasswdFile.lastModified();
+                    for (int n = 0; failure.get() == null && System.currentTimeMillis() < deadline; n++) {
+                        // distinct modification times force every rewrite to be reloaded
+                        modified += 1000L;
+                        StringBuilder passwd = new StringBuilder(HTPASSWD);
+                        StringBuilder groups = new StringBuilder(HTGROUPS);
+                        for (int i = 0; i < n % 100; i++) {
+                            passwd.append("churn").append(i).append(":{SHA}tecByS63TeTWDNwG80nkzwCdrWU=\n");
+                            groups.append("churn").append(i).append(": user1 churn").append(i).append('\n');
+                        }
+                        replace(htpasswdFile, passwd.toString(), modified);
+                        replace(htgroupsFile, groups.toString(), modified);
+                        reloads.incrementAndGet();
+                        Thread.sleep(1);
+                    }
+                } catch (Throwable ex) {
+                    failure.compareAndSet(null, ex);
+                }
+            }
+        };
+        writer.start();
+
+        long started = System.nanoTime();
+        start.countDown();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        writer.join();
+        long elapsed = System.nanoTime() - started;
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertTrue("writer made no progress", reloads.get() > 0);
+        System.out.printf("%d readers: %d operations in %d ms (%.0f ops/s) across %d file rewrites%n",
+                READERS, operations.get(), elapsed / 1000000L,
+                operations.get() * 1e9 / elapsed, reloads.get());
+    }
+
+    @Test
+    public final void testConcurrentFirstLoad() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] readers = new Thread[READERS];
+        for (int t = 0; t < READERS; t++) {
+            readers[t] = new Thread("reader-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 100; i++) {
+                            realm.authenticate("ubnt", "ubnt");
+                            realm.loadGroupByGroupname("admin");
+                        }
+                    } catch (Throwable ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        start.countDown();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+}
@@ -8,7 +8,9 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.junit.After;
 import org.junit.Before;
@@ -22,7 +24,8 @@ public class HtGroupFileTest {
             "group4:user4\n" +
             "group5: root user2\n" +
             "admin: root\n" +
-            "empty2 : \n";
+            "empty2 : \n" +
+            "dups: user1 user2 user1 user2 user3\n";
 
     private StringReader reader;
     private StringReader emptyReader;
@@ -79,4 +82,63 @@ public class HtGroupFileTest {
         assertNotNull(groups);
         assertEquals(groups.size(), 0);
     }
+
+    @Test
+    public final void testPagedUsers() throws IOException {
+        htgroup.load(reader);
+        assertNull(htgroup.getUsers("unknown", 0, 10));
+        assertEquals(htgroup.getUserCount("unknown"), 0);
+        assertEquals(htgroup.getUserCount("group3"), 3);
+
+        List<String> page = htgroup.getUsers("group3", 0, 2);
+        assertEquals(page.size(), 2);
+        assertEquals(page.get(0), "user1");
+        assertEquals(page.get(1), "user2");
+
+        page = htgroup.getUsers("group3", 2, 2);
+        assertEquals(page.size(), 1);
+        assertEquals(page.get(0), "user3");
+
+        page = htgroup.getUsers("group3", 5, Integer.MAX_VALUE);
+        assertNotNull(page);
+        assertEquals(page.size(), 0);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public final void testUsersReadOnly() throws IOException {
+        htgroup.load(reader);
+        htgroup.getUsers("group3").add("intruder");
+    }
+
+    @Test
+    public final void testGroupMembers() throws IOException {
+        htgroup.load(reader);
+        SimpleGroup group = new SimpleGroup("group3", htgroup.getUsers("group3"));
+        assertEquals(group.getMemberCount(), 3);
+        assertEquals(group.getMembers().size(), 3);
+        assertTrue(group.getMembers().contains("user2"));
+        assertFalse(group.getMembers().contains("root"));
+        assertEquals(group.getMembers(1, 1).get(0), "user2");
+
+        group = new SimpleGroup("nobody");
+        assertEquals(group.getMemberCount(), 0);
+        assertNull(group.getMembers());
+        assertEquals(group.getMembers(0, 10).size(), 0);
+    }
+
+    @Test
+    public final void testDuplicateMembers() throws IOException {
+        htgroup.load(reader);
+        List<String> users = htgroup.getUsers("dups");
+        assertEquals(users.size(), 3);
+        assertEquals(users.get(0), "user1");
+        assertEquals(users.get(1), "user2");
+        assertEquals(users.get(2), "user3");
+
+        Set<String> members = new SimpleGroup("dups", users).getMembers();
+        assertEquals(members.size(), 3);
+        assertEquals(new HashSet<String>(members), new HashSet<String>(users));
+        assertTrue(members.contains("user3"));
+        assertFalse(members.contains("root"));
+    }
 }
@@ -78,6 +78,73 @@ public class HtPasswdFileTest {
         assertEquals(htpasswd.entries.size(), 0);
     }
 
+    @Test
+    public final void testPutRemove() throws IOException {
+        htpasswd.load(reader);
+
+        htpasswd.put("newuser", HtPasswdFile.hashPassword("secret"));
+        assertTrue(htpasswd.getPassword("newuser").startsWith("$apr1$"));
+        assertTrue(htpasswd.isPasswordValid("newuser", "secret"));
+        assertFalse(htpasswd.isPasswordValid("newuser", "ubnt"));
+
+        htpasswd.put("ubnt", HtPasswdFile.hashPassword("changed"));
+        assertTrue(htpasswd.isPasswordValid("ubnt", "changed"));
+        assertFalse(htpasswd.isPasswordValid("ubnt", "ubnt"));
+
+        htpasswd.remove("newuser");
+        assertNull(htpasswd.getPassword("newuser"));
+        assertFalse(htpasswd.isPasswordValid("newuser", "secret"));
+        assertNull(htpasswd.getPassword(null));
+    }
+
+    @Test
+    public final void testShaCrypt() throws IOException {
+        htpasswd.load(new StringReader(
+                "sha256:$5$saltstring$5B8vYYiY.CVt1RlTTf8KbXBH3hsxY/GNooZaBBGWEc5\n" +
+                "sha512:$6$saltstring$svn8UoSVapNtMuq1ukKS4tPQd8iKwSMHWjl/O817G3uBnIFNjnQJuesI68u4OTLiBFdcbYEdFCoEOfaS35inz1\n" +
+                "sha256-rounds:$5$rounds=10000$saltstringsaltst$3xv.VbSHBb41AL9AvLeujZkZRBAwqFMz2.opqey6IcA\n" +
+                "sha512-rounds:$6$rounds=1400$anotherlongsalts$POfYwTEok97VWcjxIiSOjiykti.o/pQs.wPvMxQ6Fm7I6IoYN3CmLs66x9t0oSwbtEW7o7UmJEiDwGqd8p4ur1\n" +
+                "sha256-min:$5$rounds=10$roundstoolow$yfvwcWrQ8l/K0DAWyuPMDNHpIVlTQebY9l/gL972bIC\n" +
+                "sha512-min:$6$rounds=10$roundstoolow$kUMsbe306n21p9R.FRkW3IGn.S9NPN0x50YhH1xhLsPuWGsUSklZt58jaTfF4ZEQpyUNGc0dqbpBYYBaHHrsX.\n" +
+                "ubnt-sha512:$6$x$Dvauw6Ql4QRwVZnA8ApBLQ1TrlkTUtQCqy7ioVhrkOsTTB/1JoHpyL6B0Hv1.8EOfO4EBRxe0Uk7VZldKDpVx0\n" +
+                "hostile:$6$rounds=999999999$salt$Dvauw6Ql4QRwVZnA8ApBLQ1TrlkTUtQCqy7ioVhrkOsTTB/1JoHpyL6B0Hv1.8EOfO4EBRxe0Uk7VZldKDpVx0\n" +
+                "malformed:$5$rounds=many$salt$5B8vYYiY.CVt1RlTTf8KbXBH3hsxY/GNooZaBBGWEc5\n"));
+
+        assertTrue(htpasswd.isPasswordValid("sha256", "Hello world!"));
+        assertTrue(htpasswd.isPasswordValid("sha512", "Hello world!"));
+        assertTrue(htpasswd.isPasswordValid("sha256-rounds", "Hello world!"));
+        assertTrue(htpasswd.isPasswordValid("sha512-rounds",
+                "a very much longer text to encrypt.  This one even stretches over morethan one line."));
+        assertTrue(htpasswd.isPasswordValid("sha256-min", "the minimum number is still observed"));
+        assertTrue(htpasswd.isPasswordValid("sha512-min", "the minimum number is still observed"));
+        assertTrue(htpasswd.isPasswordValid("ubnt-sha512", "ubnt"));
+
+        assertFalse(htpasswd.isPasswordValid("sha256", "Hello world"));
+        assertFalse(htpasswd.isPasswordValid("sha512", "xxx"));
+        assertFalse(htpasswd.isPasswordValid("ubnt-sha512", ""));
+
+        // entries exceeding rounds limit are rejected on load
+        assertNull(htpasswd.getPassword("hostile"));
+        assertNull(htpasswd.getPassword("malformed"));
+        assertFalse(htpasswd.isPasswordValid("hostile", "ubnt"));
+
+        boolean reported = false;
+        for (HtPasswdFile.VerificationStats stats : HtPasswdFile.getVerificationStats()) {
+            if (stats.getAlgorithm().equals("SHA512_CRYPT")) {
+                assertTrue(stats.getCount() >= 5);
+                assertTrue(stats.getTotalNanos() > 0);
+                reported = true;
+            }
+        }
+        assertTrue(reported);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public final void testShaCryptRoundsLimit() {
+        ShaCrypt.verify("$5$rounds=10000$saltstringsaltst$3xv.VbSHBb41AL9AvLeujZkZRBAwqFMz2.opqey6IcA",
+                "Hello world!", 5000);
+    }
+
     @Test(expected = NullPointerException.class)
     public final void testNullStream() throws IOException {
         htpasswd.load((InputStream)null);
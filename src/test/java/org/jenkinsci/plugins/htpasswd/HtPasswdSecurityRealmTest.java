@@ -0,0 +1,100 @@
+package org.jenkinsci.plugins.htpasswd;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.acegisecurity.BadCredentialsException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Login throttling as wired into the realm, with default settings -
+ * 10 failures, one forgotten every 30 seconds. Throttles are shared by all
+ * realm instances, so every test uses its own user names and addresses.
+ */
+public class HtPasswdSecurityRealmTest {
+    private static final long DECAY = 30000L;
+    private static final int MAX_FAILURES = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HtPasswdSecurityRealm realm;
+    private long now;
+
+    @Before
+    public void setUp() throws Exception {
+        File htpasswd = folder.newFile("htpasswd");
+        FileWriter writer = new FileWriter(htpasswd);
+        try {
+            // all users have password "ubnt"
+            for (String user : new String[] { "alice", "bob", "carol", "dave", "erin", "frank" }) {
+                writer.write(user + ":{SHA}tecByS63TeTWDNwG80nkzwCdrWU=\n");
+            }
+        } finally {
+            writer.close();
+        }
+        realm = new HtPasswdSecurityRealm(htpasswd.getPath(), null);
+        now = System.currentTimeMillis();
+    }
+
+    private boolean login(String user, String password, String address, long time) {
+        try {
+            realm.authenticate(user, password, address, time);
+            return true;
+        } catch (BadCredentialsException ex) {
+            return false;
+        }
+    }
+
+    private void failLogins(String user, String address, int times) {
+        for (int i = 0; i < times; i++) {
+            assertFalse(login(user, "wrong", address, now));
+        }
+    }
+
+    @Test
+    public final void testThrottledByUserAndAddress() throws IOException {
+        failLogins("alice", "10.1.0.1", MAX_FAILURES);
+        assertFalse(login("alice", "ubnt", "10.1.0.1", now));
+
+        // the user is not locked out on other addresses
+        assertTrue(login("alice", "ubnt", "10.1.0.2", now));
+        // but everybody is on the failing address
+        assertFalse(login("bob", "ubnt", "10.1.0.1", now));
+        assertTrue(login("bob", "ubnt", "10.1.0.3", now));
+
+        // one failure is forgotten after a while
+        assertTrue(login("alice", "ubnt", "10.1.0.1", now + DECAY));
+    }
+
+    @Test
+    public final void testResetOnSuccess() throws IOException {
+        // no request - no address, only the user is throttled
+        failLogins("carol", null, MAX_FAILURES - 1);
+        assertTrue(login("carol", "ubnt", null, now));
+        failLogins("carol", null, MAX_FAILURES - 1);
+        assertTrue(login("carol", "ubnt", null, now));
+
+        failLogins("carol", null, MAX_FAILURES);
+        assertFalse(login("carol", "ubnt", null, now));
+        assertTrue(login("dave", "ubnt", null, now));
+    }
+
+    @Test
+    public final void testBlockedAttemptsCountAgainstAddress() throws IOException {
+        failLogins("erin", "10.2.0.1", MAX_FAILURES);
+
+        // attempts rejected while the address is blocked keep it blocked
+        assertFalse(login("frank", "ubnt", "10.2.0.1", now + DECAY - 5000L));
+        assertFalse(login("frank", "ubnt", "10.2.0.1", now + DECAY + 1000L));
+        // until the address is left alone long enough
+        assertTrue(login("frank", "ubnt", "10.2.0.1", now + 2 * DECAY + 2000L));
+    }
+}
@@ -0,0 +1,217 @@
+package org.jenkinsci.plugins.htpasswd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LazyHtPasswdFileTest {
+    private static final String INPUT1 =
+            "# comment:line\n" +
+            "empty:\n" +
+            "ubnt:$apr1$z.ii9bda$5iZZ8QGI3IZSONip9.jiF1\n" +
+            "  ubnt-md5 : $apr1$e2Os.H4I$Oa4/Wm3KmI0hTXJAuUoeS/  \r\n" +
+            "no separator\n" +
+            "ubnt-sha:{SHA}tecByS63TeTWDNwG80nkzwCdrWU=\n" +
+            "dup:{SHA}first=\n" +
+            "ubnt-crypt:RtK6w4Y3jP2C.\n" +
+            "dup:{SHA}second=";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private LazyHtPasswdFile htpasswd;
+
+    @Before
+    public void setUp() throws Exception {
+        file = folder.newFile("htpasswd");
+        write(file, INPUT1);
+        htpasswd = new LazyHtPasswdFile();
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public final void testInput1() throws IOException {
+        htpasswd.load(file);
+
+        // nothing is decoded until looked up
+        assertEquals(htpasswd.entries.size(), 0);
+
+        assertNull(htpasswd.getPassword("unknown"));
+        assertNull(htpasswd.getPassword("empty"));
+        assertNull(htpasswd.getPassword("# comment"));
+        assertNull(htpasswd.getPassword("no separator"));
+        assertNull(htpasswd.getPassword("ubnt-"));
+        assertNotNull(htpasswd.getPassword("ubnt"));
+        assertEquals(htpasswd.getPassword("ubnt-md5"), "$apr1$e2Os.H4I$Oa4/Wm3KmI0hTXJAuUoeS/");
+        assertEquals(htpasswd.getPassword("dup"), "{SHA}second=");
+
+        assertTrue(htpasswd.isPasswordValid("ubnt", "ubnt"));
+        assertTrue(htpasswd.isPasswordValid("ubnt-md5", "ubnt"));
+        assertTrue(htpasswd.isPasswordValid("ubnt-sha", "ubnt"));
+        assertTrue(htpasswd.isPasswordValid("ubnt-crypt", "ubnt"));
+        assertFalse(htpasswd.isPasswordValid("ubnt", "xxx"));
+        assertFalse(htpasswd.isPasswordValid("unknown", "ubnt"));
+
+        assertEquals(htpasswd.entries.size(), 5);
+    }
+
+    @Test
+    public final void testPutRemove() throws IOException {
+        htpasswd.load(file);
+
+        htpasswd.remove("ubnt");
+        assertNull(htpasswd.getPassword("ubnt"));
+        assertFalse(htpasswd.isPasswordValid("ubnt", "ubnt"));
+
+        htpasswd.put("ubnt", "{SHA}tecByS63TeTWDNwG80nkzwCdrWU=");
+        assertTrue(htpasswd.isPasswordValid("ubnt", "ubnt"));
+
+        htpasswd.put("newuser", "{SHA}tecByS63TeTWDNwG80nkzwCdrWU=");
+        assertTrue(htpasswd.isPasswordValid("newuser", "ubnt"));
+    }
+
+    @Test
+    public final void testReaderAndClear() throws IOException {
+        htpasswd.load(file);
+        htpasswd.load(new StringReader("other:{SHA}tecByS63TeTWDNwG80nkzwCdrWU=\n"));
+        assertNull(htpasswd.getPassword("ubnt"));
+        assertTrue(htpasswd.isPasswordValid("other", "ubnt"));
+
+        htpasswd.clear();
+        assertNull(htpasswd.getPassword("other"));
+    }
+
+    @Test
+    public final void testManyUsers() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("user").append(i).append(":{SHA}hash").append(i).append("=\n");
+        }
+        write(file, sb.toString());
+        htpasswd.load(file);
+
+        for (int i = 0; i < 10000; i += 7) {
+            assertEquals(htpasswd.getPassword("user" + i), "{SHA}hash" + i + "=");
+        }
+        assertNull(htpasswd.getPassword("user10000"));
+    }
+
+    @Test
+    public final void testShortLines() throws IOException {
+        // more entries than estimated from the file size, the index is grown
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append('u').append(i % 1000).append(":h").append(i).append('\n');
+        }
+        write(file, sb.toString());
+        htpasswd.load(file);
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(htpasswd.getPassword("u" + i), "h" + (4000 + i));
+        }
+    }
+
+    @Test
+    public final void testRewrittenInPlace() throws IOException {
+        htpasswd.load(file);
+
+        // file is rewritten without being replaced, so that another user's
+        // entry starts where "ubnt-sha" entry was, and "ubnt" is in a comment
+        int offset = INPUT1.indexOf("ubnt-sha:");
+        StringBuilder sb = new StringBuilder("#");
+        while (sb.length() < offset - 1) {
+            sb.append('x');
+        }
+        sb.append("\nubnt:{SHA}changed=\n");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            raf.write(sb.toString().getBytes("UTF-8"));
+        } finally {
+            raf.close();
+        }
+        assertNull(htpasswd.getPassword("ubnt-sha"));
+        assertNull(htpasswd.getPassword("ubnt"));
+
+        write(file, "");
+        assertNull(htpasswd.getPassword("dup"));
+        assertNull(htpasswd.getPassword("ubnt-md5"));
+    }
+
+    @Test
+    public final void testReplaced() throws IOException {
+        htpasswd.load(file);
+
+        // loaded file is still read after being replaced by rename
+        File replacement = folder.newFile("htpasswd.new");
+        write(replacement, "ubnt-md5:{SHA}changed=\n");
+        Files.move(replacement.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        assertTrue(htpasswd.isPasswordValid("ubnt-md5", "ubnt"));
+        assertEquals(htpasswd.getPassword("dup"), "{SHA}second=");
+    }
+
+    @Test
+    public final void testClose() throws IOException {
+        htpasswd.load(file);
+        assertTrue(htpasswd.isPasswordValid("ubnt", "ubnt"));
+        htpasswd.close();
+
+        // only entries decoded before are available
+        assertTrue(htpasswd.isPasswordValid("ubnt", "ubnt"));
+        assertNull(htpasswd.getPassword("ubnt-sha"));
+    }
+
+    @Test
+    public final void testInterrupted() throws IOException {
+        htpasswd.load(file);
+
+        // interrupted read closes the channel, the file is opened again
+        Thread.currentThread().interrupt();
+        try {
+            assertNull(htpasswd.getPassword("ubnt"));
+        } finally {
+            Thread.interrupted();
+        }
+        assertTrue(htpasswd.isPasswordValid("ubnt", "ubnt"));
+    }
+
+    @Test
+    public final void testCached() throws Exception {
+        CachedHtFile<HtPasswdFile> cached =
+                new CachedHtFile<HtPasswdFile>(file.getPath(), LazyHtPasswdFile.class);
+        HtPasswdFile loaded = cached.get();
+        assertTrue(loaded instanceof LazyHtPasswdFile);
+        assertTrue(loaded.isPasswordValid("ubnt", "ubnt"));
+
+        cached.update("ubnt", null);
+        cached.update("newuser", "{SHA}tecByS63TeTWDNwG80nkzwCdrWU=");
+        assertNull(loaded.getPassword("ubnt"));
+        assertTrue(loaded.isPasswordValid("newuser", "ubnt"));
+        assertEquals(loaded.getPassword("dup"), "{SHA}second=");
+    }
+}
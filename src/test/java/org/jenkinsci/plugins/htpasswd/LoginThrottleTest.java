@@ -0,0 +1,105 @@
+package org.jenkinsci.plugins.htpasswd;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LoginThrottleTest {
+    private static final long DECAY = 1000L;
+
+    @Test
+    public final void testBlockAfterMaxFailures() {
+        LoginThrottle throttle = new LoginThrottle(1024, 3, DECAY, 0L);
+        long now = 1000000L;
+
+        assertFalse(throttle.isBlocked("user", now));
+        throttle.recordFailure("user", now);
+        throttle.recordFailure("user", now);
+        assertFalse(throttle.isBlocked("user", now));
+        throttle.recordFailure("user", now);
+        assertTrue(throttle.isBlocked("user", now));
+        assertFalse(throttle.isBlocked("other", now));
+    }
+
+    @Test
+    public final void testDecay() {
+        LoginThrottle throttle = new LoginThrottle(1024, 3, DECAY, 0L);
+        long now = 1000000L;
+
+        for (int i = 0; i < 10; i++) {
+            throttle.recordFailure("user", now);
+        }
+        assertTrue(throttle.isBlocked("user", now));
+        assertTrue(throttle.isBlocked("user", now + DECAY - 1));
+        assertFalse(throttle.isBlocked("user", now + DECAY));
+
+        // one failure leaked, next one blocks again
+        throttle.recordFailure("user", now + DECAY);
+        assertTrue(throttle.isBlocked("user", now + DECAY));
+        assertFalse(throttle.isBlocked("user", now + 4 * DECAY));
+    }
+
+    @Test
+    public final void testReset() {
+        LoginThrottle throttle = new LoginThrottle(1024, 2, DECAY, 0L);
+        long now = 1000000L;
+
+        throttle.recordFailure("user", now);
+        throttle.recordFailure("user", now);
+        assertTrue(throttle.isBlocked("user", now));
+        throttle.reset("user");
+        assertFalse(throttle.isBlocked("user", now));
+    }
+
+    @Test
+    public final void testDisabledAndNullKeys() {
+        LoginThrottle throttle = new LoginThrottle(16, 0, DECAY, 0L);
+        throttle.recordFailure("user", 1L);
+        assertFalse(throttle.isBlocked("user", 1L));
+
+        throttle = new LoginThrottle(16, 1, DECAY, 0L);
+        throttle.recordFailure(null, 1L);
+        assertFalse(throttle.isBlocked(null, 1L));
+    }
+
+    @Test
+    public final void testBoundedTable() {
+        // a single set of four buckets, shared by all keys
+        LoginThrottle throttle = new LoginThrottle(4, 1, DECAY, 0L);
+        for (int i = 0; i < 100; i++) {
+            throttle.recordFailure("user" + i, 1L);
+        }
+        assertTrue(throttle.isBlocked("user99", 1L));
+        assertFalse(throttle.isBlocked("user0", 1L));
+        assertFalse(throttle.isBlocked("anyone", 1L));
+    }
+
+    @Test
+    public final void testCollidingKeys() {
+        LoginThrottle throttle = new LoginThrottle(4, 3, DECAY, 0L);
+        long now = 1000000L;
+
+        for (int i = 0; i < 10; i++) {
+            throttle.recordFailure("admin", now);
+        }
+        assertTrue(throttle.isBlocked("admin", now));
+        // same bucket set, but unrelated keys
+        assertFalse(throttle.isBlocked("user", now));
+        assertFalse(throttle.isBlocked("10.0.0.1", now));
+
+        throttle.recordFailure("user", now);
+        throttle.recordFailure("user2", now);
+        throttle.recordFailure("user3", now);
+        assertFalse(throttle.isBlocked("user", now));
+        assertTrue(throttle.isBlocked("admin", now));
+
+        // least failed bucket is reused once the set is full
+        throttle.recordFailure("user4", now);
+        assertTrue(throttle.isBlocked("admin", now));
+        throttle.reset("user4");
+        assertTrue(throttle.isBlocked("admin", now));
+        throttle.reset("admin");
+        assertFalse(throttle.isBlocked("admin", now));
+    }
+}
@@ -0,0 +1,223 @@
+package org.jenkinsci.plugins.htpasswd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.acegisecurity.BadCredentialsException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class RemoteHtFileTest {
+    private static final String INPUT1 =
+            "ubnt:$apr1$z.ii9bda$5iZZ8QGI3IZSONip9.jiF1\n";
+    private static final String INPUT2 =
+            INPUT1 + "ubnt-sha:{SHA}tecByS63TeTWDNwG80nkzwCdrWU=\n";
+    private static final String LAST_MODIFIED = "Sat, 01 Mar 2014 10:00:00 GMT";
+
+    private HttpServer server;
+    private URL url;
+
+    // served content, its version and server behaviour
+    private volatile String content = INPUT1;
+    private volatile int version = 1;
+    private volatile boolean useEtag = true;
+    private volatile boolean broken = false;
+
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private final AtomicInteger notModifiedResponses = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/htpasswd", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                String etag = "\"v" + version + "\"";
+                String lastModified = (version == 1) ? LAST_MODIFIED : "Sun, 02 Mar 2014 10:00:00 GMT";
+                if (broken) {
+                    exchange.sendResponseHeaders(503, -1);
+                } else if (useEtag && etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))
+                        || !useEtag && lastModified.equals(exchange.getRequestHeaders().getFirst("If-Modified-Since"))) {
+                    notModifiedResponses.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    fullResponses.incrementAndGet();
+                    if (useEtag) {
+                        exchange.getResponseHeaders().set("ETag", etag);
+                    } else {
+                        exchange.getResponseHeaders().set("Last-Modified", lastModified);
+                    }
+                    byte[] body = content.getBytes("UTF-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/htpasswd");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    @Test
+    public final void testConditionalGet() throws Exception {
+        RemoteHtFile<HtPasswdFile> remote = new RemoteHtFile<HtPasswdFile>(url, HtPasswdFile.class, 0L);
+        HtPasswdFile htpasswd = remote.get();
+        assertTrue(htpasswd.isPasswordValid("ubnt", "ubnt"));
+        assertNull(htpasswd.getPassword("ubnt-sha"));
+
+        // unchanged - not transferred nor parsed again
+        assertSame(htpasswd, remote.get());
+        assertSame(htpasswd, remote.get());
+        assertEquals(fullResponses.get(), 1);
+        assertEquals(notModifiedResponses.get(), 2);
+
+        content = INPUT2;
+        version = 2;
+        HtPasswdFile reloaded = remote.get();
+        assertNotSame(htpasswd, reloaded);
+        assertTrue(reloaded.isPasswordValid("ubnt-sha", "ubnt"));
+        assertEquals(fullResponses.get(), 2);
+    }
+
+    @Test
+    public final void testPlainHttpRefused() throws Exception {
+        HtPasswdSecurityRealm realm = new HtPasswdSecurityRealm(url.toString(), null);
+        try {
+            realm.authenticate("ubnt", "ubnt");
+            fail("plain http htpasswd location accepted");
+        } catch (BadCredentialsException expected) {
+        }
+        assertEquals(fullResponses.get(), 0);
+    }
+
+    @Test
+    public final void testIfModifiedSince() throws Exception {
+        useEtag = false;
+        RemoteHtFile<HtPasswdFile> remote = new RemoteHtFile<HtPasswdFile>(url, HtPasswdFile.class, 0L);
+        HtPasswdFile htpasswd = remote.get();
+        assertSame(htpasswd, remote.get());
+        assertEquals(fullResponses.get(), 1);
+        assertEquals(notModifiedResponses.get(), 1);
+    }
+
+    @Test
+    public final void testRefreshInterval() throws Exception {
+        RemoteHtFile<HtPasswdFile> remote =
+                new RemoteHtFile<HtPasswdFile>(url, HtPasswdFile.class, 60000L);
+        HtPasswdFile htpasswd = remote.get();
+        content = INPUT2;
+        version = 2;
+        assertSame(htpasswd, remote.get());
+        assertEquals(fullResponses.get() + notModifiedResponses.get(), 1);
+    }
+
+    @Test
+    public final void testOutage() throws Exception {
+        RemoteHtFile<HtPasswdFile> remote = new RemoteHtFile<HtPasswdFile>(url, HtPasswdFile.class, 0L);
+        HtPasswdFile htpasswd = remote.get();
+
+        broken = true;
+        assertSame(htpasswd, remote.get());
+
+        server.stop(0);
+        assertSame(htpasswd, remote.get());
+        assertTrue(htpasswd.isPasswordValid("ubnt", "ubnt"));
+    }
+
+    @Test
+    public final void testInitialFailureCached() throws Exception {
+        broken = true;
+        RemoteHtFile<HtPasswdFile> remote =
+                new RemoteHtFile<HtPasswdFile>(url, HtPasswdFile.class, 60000L);
+        for (int i = 0; i < 3; i++) {
+            try {
+                remote.get();
+                fail("unavailable file loaded");
+            } catch (IOException expected) {
+            }
+        }
+        // failed load is not retried until the refresh interval passes
+        assertEquals(requests.get(), 1);
+    }
+
+    @Test
+    public final void testSlowInitialLoad() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = INPUT1.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+                exchange.close();
+            }
+        });
+        final RemoteHtFile<HtPasswdFile> remote = new RemoteHtFile<HtPasswdFile>(
+                new URL(url, "/slow"), HtPasswdFile.class, 60000L);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread loader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    remote.get();
+                } catch (Throwable ex) {
+                    failure.set(ex);
+                }
+            }
+        };
+        loader.start();
+        started.await();
+
+        // only the loading thread waits for the server
+        try {
+            remote.get();
+            fail("got data before it was loaded");
+        } catch (IOException expected) {
+        }
+        release.countDown();
+        loader.join();
+        assertNull(failure.get());
+        assertTrue(remote.get().isPasswordValid("ubnt", "ubnt"));
+    }
+
+    @Test(expected = IOException.class)
+    public final void testUnavailable() throws Exception {
+        broken = true;
+        new RemoteHtFile<HtPasswdFile>(url, HtPasswdFile.class, 0L).get();
+    }
+}